@@ -34,6 +34,7 @@ import android.mono.table.*;
 import android.mono.table.data.*;
 import android.mono.table.ui.*;
 import android.os.*;
+import android.text.*;
 import android.view.*;
 import android.widget.*;
 
@@ -41,17 +42,27 @@ import static android.mono.table.etc.util.*;
 
 public class Act extends BaseActivity {
 
-    private DataModel words;
+    private Words words;
+    private Selection selection; // filtered view of the words shown in tableWords
+    private CPU.Residency residency;
     private DataModel cpu;
     private DataModel mem;
     private DataModel jvm;
+    private TableView tableWords;
     private TableView tableCPU;
     private TableView tableMem;
     private TableView tableJVM;
+    private TableView tableResidency;
+    private EditText query;
+    private boolean compiling;
 
-    private final Runnable invalidateCPU = new Runnable() { public void run() { tableCPU.invalidate(); } };
-    private final Runnable invalidateMem = new Runnable() { public void run() { tableMem.invalidate(); } };
+    private final Runnable invalidateCPU = new Runnable() { public void run() { invalidateCPU(); } };
+    private final Runnable invalidateMem = new Runnable() { public void run() { tableMem.invalidateChanged(); } };
     private final Runnable invalidateJVM = new Runnable() { public void run() { tableJVM.invalidate(); } };
+    private final Runnable invalidateResidency = new Runnable() { public void run() { tableResidency.invalidate(); } };
+    private final Runnable wordsProgress = new Runnable() { public void run() { wordsProgress(); } };
+    private final Runnable wordsFiltered = new Runnable() { public void run() { wordsFiltered(); } };
+    private final Runnable wordsCompiled = new Runnable() { public void run() { selection.dictionary(words.dictionary()); } };
 
     private final LinearLayout.LayoutParams lp = new LinearLayout.LayoutParams(C.WRAP_WRAP) {{ setMargins(9, 7, 9, 7); }};
     private final int[] repaint = new int[1];
@@ -60,7 +71,9 @@ public class Act extends BaseActivity {
 
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        words = new Words(this);
+        words = new Words(this, true).progressive(wordsProgress);
+        selection = new Selection(words);
+        residency = new CPU.Residency();
         mem = new MemInfo();
         cpu = new CPU();
         jvm = new MemJVM();
@@ -68,6 +81,7 @@ public class Act extends BaseActivity {
         jvm.open(repaint, new String[]{"draw"});
         mem.open("/proc/meminfo");
         cpu.open("/proc/stat");
+        residency.open(0);
         words.update(wordsLoaded);
         setContentView(createLinerLayout(LinearLayout.VERTICAL));
     }
@@ -77,13 +91,16 @@ public class Act extends BaseActivity {
         running = true;
         if (cv.getChildCount() > 0) {
             jvm.update(invalidateJVM);
-            post(updateProcFS);
+            startPolling();
         }
     }
 
     public void onPause() {
         super.onPause();
         running = false;
+        Poller.getInstance().unregister(cpu);
+        Poller.getInstance().unregister(mem);
+        Poller.getInstance().unregister(residency);
     }
 
     public void onDestroy() {
@@ -91,13 +108,65 @@ public class Act extends BaseActivity {
         close(jvm);
         close(mem);
         close(cpu);
+        close(residency);
+        close(selection);
         close(words);
+        Poller.getInstance().shutdown();
         super.onDestroy();
     }
 
+    private int cpuColumns;
+
+    private void invalidateCPU() {
+        if (cpu.columns() != cpuColumns) { // cores went online or offline
+            cpuColumns = cpu.columns();
+            tableCPU.requestLayout();
+            tableCPU.invalidate();
+        } else {
+            tableCPU.invalidateChanged();
+        }
+    }
+
+    private void wordsProgress() {
+        if (words.complete() && words.failure() == null && !compiling) {
+            compiling = true;
+            words.compile(wordsCompiled);
+        }
+        if (query != null && query.getText().length() > 0) { // more rows have been indexed: filter again
+            filterWords(query.getText().toString());
+        } else {
+            wordsFiltered();
+        }
+    }
+
+    /* "abc" rows starting with abc, "*abc" rows containing abc, "~abc" ("~~abc") rows within edit
+       distance 1 (2) of abc */
+    private void filterWords(String q) {
+        if (q.startsWith("~")) {
+            int k = q.startsWith("~~") ? 2 : 1;
+            selection.fuzzy(q.substring(k), k, wordsFiltered);
+        } else if (q.startsWith("*")) {
+            selection.filter(q.substring(1), true, wordsFiltered);
+        } else {
+            selection.filter(q, false, wordsFiltered);
+        }
+    }
+
+    private void wordsFiltered() {
+        if (tableWords != null) {
+            tableWords.requestLayout();
+            tableWords.invalidate();
+        }
+    }
+
     private final Runnable wordsLoaded = new Runnable() { public void run() { wordsLoaded(); } };
 
-    private void wordsLoaded() { mem.update(memUpdate); }
+    private void wordsLoaded() {
+        if (words.failure() != null) { // rows indexed before the failure are still shown
+            Toast.makeText(this, "words: " + words.failure().getMessage(), Toast.LENGTH_LONG).show();
+        }
+        mem.update(memUpdate);
+    }
 
     private final Runnable memUpdate = new Runnable() { public void run() { memUpdated(); } };
 
@@ -114,15 +183,11 @@ public class Act extends BaseActivity {
         }
     }
 
-    private final Runnable updateProcFS = new Runnable() {
-        public void run() {
-            if (running) {
-                cpu.update(invalidateCPU);
-                mem.update(invalidateMem);
-                postDelayed(updateProcFS, C.PROCFS_REFRESH_IN_MILLIS);
-            }
-        }
-    };
+    private void startPolling() {
+        Poller.getInstance().register(cpu, C.PROCFS_REFRESH_IN_MILLIS, invalidateCPU);
+        Poller.getInstance().register(mem, C.PROCFS_REFRESH_IN_MILLIS, invalidateMem);
+        Poller.getInstance().register(residency, C.PROCFS_REFRESH_IN_MILLIS, invalidateResidency);
+    }
 
     private void createViews() {
         assertion(cv.getChildCount() == 0);
@@ -131,7 +196,9 @@ public class Act extends BaseActivity {
         hl.addView(createWordsPanel(), lp);
         hl.addView(createProcFSPanel(), lp);
         cv.addView(hl, lp);
-        post(updateProcFS);
+        if (running) {
+            startPolling();
+        }
     }
 
     private void addJavaMemoryAndRedrawButtonPanel() {
@@ -155,14 +222,29 @@ public class Act extends BaseActivity {
     }
 
     private View createWordsPanel() {
-        return scrollableTable(new TableView(this).setModel(new PaintTableModel(words, G.monospaced) {
+        LinearLayout vl = createLinerLayout(LinearLayout.VERTICAL);
+        query = new EditText(this);
+        query.setSingleLine(true);
+        query.setHint("prefix  *contains  ~fuzzy");
+        query.setTextColor(C.NC_GOLD);
+        query.setHintTextColor(C.NC_GRAY);
+        query.setBackgroundColor(C.NC_DKBLUE);
+        query.addTextChangedListener(new TextWatcher() {
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) { }
+            public void onTextChanged(CharSequence s, int start, int before, int count) { }
+            public void afterTextChanged(Editable s) { filterWords(s.toString()); }
+        });
+        vl.addView(query, C.MATCH_WRAP);
+        tableWords = new TableView(this).setModel(new PaintTableModel(selection, G.monospaced) {
             public int justify(int c, int r) {
                 return c == 0 ? TableModel.LEFT_JUSTIFIED : TableModel.RIGHT_JUSTIFIED;
             }
             protected int color(int c, int r) {
                 return c == 0 ? C.NC_GOLD : (c == 1 ? C.NC_LTBLUE : C.NC_VERDIGRIS);
             }
-        }));
+        });
+        vl.addView(scrollableTable(tableWords), C.WRAP_WRAP);
+        return vl;
     }
 
     private ViewGroup createProcFSPanel() {
@@ -174,10 +256,15 @@ public class Act extends BaseActivity {
             public int justify(int c, int r) { return c != 1 ? TableModel.LEFT_JUSTIFIED : TableModel.RIGHT_JUSTIFIED; }
             protected int color(int c, int r) { return c == 0 ? C.NC_GOLD : (c == 1 ? C.NC_LTBLUE : C.NC_VERDIGRIS); }
         });
+        tableResidency = new TableView(this).setModel(new PaintTableModel(residency, G.monospaced) {
+            public int justify(int c, int r) { return TableModel.RIGHT_JUSTIFIED; }
+            protected int color(int c, int r) { return r == 0 ? C.NC_VERDIGRIS : (c == 0 ? C.NC_GOLD : C.NC_LTBLUE); }
+        });
         TabGroup tg = new TabGroup(this);
         tg.setBackgroundColor(C.NC_DKBLUE);
         tg.addTab("CPU", scrollableTable(tableCPU));
         tg.addTab("Mem", scrollableTable(tableMem));
+        tg.addTab("Freq", scrollableTable(tableResidency));
         return tg;
     }
 
@@ -188,16 +275,10 @@ public class Act extends BaseActivity {
         return ll;
     }
 
-    private ViewGroup scrollableTable(TableView tv) {
+    private TableView scrollableTable(TableView tv) { // TableView scrolls itself and stays hardware accelerated
         tv.setBackgroundColor(C.NC_DKBLUE);
         tv.setPadding(5, 5, 5, 5);
-        ScrollView sv = new ScrollView(this);
-        sv.setLayerType(View.LAYER_TYPE_SOFTWARE, null); // IMPORTANT - otherwise TableView is cached
-        sv.setFillViewport(true); // to draw background in whole viewport of scroll view
-        sv.setOverScrollMode(ScrollView.OVER_SCROLL_ALWAYS);
-        sv.addView(tv);
-        sv.setPadding(3, 3, 3, 3);
-        return sv;
+        return tv;
     }
 
     private CheckBox createCheckBox(ViewGroup parent) {
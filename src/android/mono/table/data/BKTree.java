@@ -0,0 +1,166 @@
+/*  Copyright (c) 2012, Leo Kuznetsov
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+    * Neither the name of the {organization} nor the names of its
+      contributors may be used to endorse or promote products derived from
+      this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+    DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+    FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+    DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+    SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+    CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+    OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+    OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package android.mono.table.data;
+
+import java.util.*;
+
+/** BKTree is an immutable Burkhard-Keller tree of Words rows by Levenshtein distance for typo tolerant
+    lookup. Nodes are rows and the tree is kept in three primitive arrays (first child, next sibling
+    and distance to the parent) indexed by row. Query visits only the children whose distance to the
+    parent is within [d - k, d + k] of the distance d between the query and the parent (triangle inequality).
+ */
+
+final class BKTree {
+
+    private final Words words;
+    private final int rows;
+    private final int[] child;    // first child row + 1 or 0
+    private final int[] sibling;  // next child row of the same parent + 1 or 0
+    private final char[] parent;  // distance to the parent, saturated
+    private char[] a = new char[64]; // query or row being inserted
+    private char[] b = new char[64]; // row being compared
+    private int[] v0 = new int[65];
+    private int[] v1 = new int[65];
+
+    BKTree(Words w, int n) {
+        words = w;
+        rows = n;
+        child = new int[n];
+        sibling = new int[n];
+        parent = new char[n];
+        for (int r = 1; r < n; r++) {
+            int len = chars(r);
+            int node = 0;
+            for (;;) {
+                int d = Math.min(distance(len, node), Character.MAX_VALUE);
+                int c = child[node] - 1;
+                while (c >= 0 && parent[c] != d) {
+                    c = sibling[c] - 1;
+                }
+                if (c < 0) {
+                    parent[r] = (char)d;
+                    sibling[r] = child[node];
+                    child[node] = r + 1;
+                    break;
+                }
+                node = c;
+            }
+        }
+    }
+
+    /** number of rows indexed */
+    int rows() {
+        return rows;
+    }
+
+    /** @return rows within Levenshtein distance k of q ordered by distance and then by row */
+    int[] query(CharSequence q, int k) {
+        if (rows == 0) {
+            return new int[0];
+        }
+        int len = q.length();
+        if (a.length < len) {
+            a = new char[len * 3 / 2];
+        }
+        for (int i = 0; i < len; i++) {
+            a[i] = q.charAt(i);
+        }
+        long[] found = new long[16]; // distance << 32 | row
+        int n = 0;
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            int d = distance(len, node);
+            if (d <= k) {
+                if (n == found.length) {
+                    found = Arrays.copyOf(found, n * 2);
+                }
+                found[n++] = ((long)d << 32) | node;
+            }
+            for (int c = child[node] - 1; c >= 0; c = sibling[c] - 1) {
+                if (Math.abs(parent[c] - d) <= k) {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                    }
+                    stack[top++] = c;
+                }
+            }
+        }
+        Arrays.sort(found, 0, n);
+        int[] rs = new int[n];
+        for (int i = 0; i < n; i++) {
+            rs[i] = (int)found[i];
+        }
+        return rs;
+    }
+
+    /* copies characters of the row into `a' */
+    private int chars(int row) {
+        int len = words.length(row);
+        if (a.length < len) {
+            a = new char[len * 3 / 2];
+        }
+        words.chars(row, 0, a, len);
+        return len;
+    }
+
+    /* Levenshtein distance between first len characters of `a' and the row, two row dynamic programming */
+    private int distance(int len, int row) {
+        int m = words.length(row);
+        if (b.length < m) {
+            b = new char[m * 3 / 2];
+        }
+        words.chars(row, 0, b, m);
+        if (v0.length <= m) {
+            v0 = new int[m * 3 / 2 + 1];
+            v1 = new int[v0.length];
+        }
+        int[] prev = v0;
+        int[] cur = v1;
+        for (int j = 0; j <= m; j++) {
+            prev[j] = j;
+        }
+        for (int i = 0; i < len; i++) {
+            cur[0] = i + 1;
+            char c = a[i];
+            for (int j = 0; j < m; j++) {
+                int cost = b[j] == c ? 0 : 1;
+                cur[j + 1] = Math.min(Math.min(cur[j], prev[j + 1]) + 1, prev[j] + cost);
+            }
+            int[] t = prev;
+            prev = cur;
+            cur = t;
+        }
+        return prev[m];
+    }
+
+}
@@ -33,116 +33,204 @@ import android.graphics.*;
 import android.mono.table.app.*;
 import android.mono.table.etc.*;
 
+import java.io.*;
+import java.util.*;
+
 import static android.mono.table.etc.util.*;
-import static java.lang.String.format;
 
 public final class CPU extends ProcFS {
 
-    // in User HERTZ see: see: https://www.kernel.org/doc/Documentation/filesystems/proc.txt
-    public static class Stats {
-        int cpu;
-        long user;
-        long nice;
-        long system;
-        long idle;
-        long iowait;
-        long irq;
-        long softirq;
-        float load; // %% load per processor at current frequency
-        long freq;
-        long max; // frequency per processor
-        float scaled; // %% of loaded scaled by freq/max per processor
-        long nanos; // System.nanoTime() timestamp
+    // counters are in USER_HZ see: https://www.kernel.org/doc/Documentation/filesystems/proc.txt
+    public static final int USER = 0, NICE = 1, SYSTEM = 2, IDLE = 3, IOWAIT = 4, IRQ = 5, SOFTIRQ = 6;
+    public static final int COUNTERS = 7; // ignore: steal, guest, guest_nice
+    public static final int HISTORY = 64; // samples
+
+    /* Derived part of a ProcFS snapshot in struct-of-arrays layout. Arrays are indexed by
+       cpu + 1 with index 0 for "all" */
+    private static final class Snapshot {
+        final long[][] rates; // [counter][cpu + 1] per second
+        final float[] load;   // %% load per processor at current frequency
+        final long[] freq;    // average frequency per processor
+        final long[] max;     // max frequency per processor
+        final float[] scaled; // %% of loaded scaled by freq/max per processor
+
+        Snapshot(int n) {
+            rates = new long[COUNTERS][n];
+            load = new float[n];
+            freq = new long[n];
+            max = new long[n];
+            scaled = new float[n];
+        }
     }
 
-    private static final int AP = Runtime.getRuntime().availableProcessors();
-    private static final float[] load  = new float[AP + 1];
-    private final Stats[][] stats = new Stats[2][];
-    private final Stats[] delta = new Stats[AP + 1];
+    private static final String SYS = "/sys/devices/system/cpu/";
+    /* "possible" cpus are fixed at boot while "present" and "online" change with hotplug.
+       All per cpu arrays are sized by possible and only online cores are read and shown. */
+    private static final int NP = possible();
+    private static final Schema SCHEMA = new Schema().stable().limit(NP + 1) // only "cpu" lines are of interest
+            .column("cpu", Schema.TEXT)
+            .column("user", Schema.NUMBER)
+            .column("nice", Schema.NUMBER)
+            .column("system", Schema.NUMBER)
+            .column("idle", Schema.NUMBER)
+            .column("iowait", Schema.NUMBER)
+            .column("irq", Schema.NUMBER)
+            .column("softirq", Schema.NUMBER)
+            .column("steal", Schema.NUMBER)
+            .column("guest", Schema.NUMBER);
+    private final History history = new History(HISTORY, COUNTERS, NP + 1);
+    private long[][] sample = new long[COUNTERS][NP + 1];   // writer only: current sample
+    private long[][] previous = new long[COUNTERS][NP + 1]; // writer only: previous sample
+    private boolean[] sampled = new boolean[NP + 1];  // writer only: cpu was online in current sample
+    private boolean[] reported = new boolean[NP + 1]; // writer only: cpu was online in previous sample
+    private long nanos; // writer only: timestamp of the previous sample
+    private final long[] delta = new long[COUNTERS]; // load(): guarded by itself
+    private final Snapshot[] snapshots = new Snapshot[BUFFERS]; // snapshots[Data.index]
     private final Text text = new Text(32);
-    private final CharArray buf = new CharArray();
-    private int measuring;
-    private final Freq[] freq = new Freq[AP];
+    private final ByteArray buf = new ByteArray();
+    private final Freq[] freq = new Freq[NP]; // created when core comes online for the first time
+    private final Cores online = new Cores();
+    private final Cores present = new Cores();
+    private int[] cpus = new int[0]; // cores shown and polled, main thread only
+    private boolean opened;
     private Runnable done;
-    private final Runnable[] updated = new Runnable[AP + 1];
-    private final boolean[] awaiting = new boolean[AP + 1];
+    private final Runnable collected = new Runnable() { public void run() { collected(); } };
+    private Poller.Group group; // reads "/proc/stat", hotplug state and frequencies of online cores as a single tick
 
     public CPU() {
-        super(10);
-        for (int i = 0; i < delta.length; i++) {
-            delta[i] = new Stats();
-        }
-        for (int k = 0; k < stats.length; k++) {
-            stats[k] = new Stats[delta.length];
-            for (int i = 0; i < stats[k].length; i++) {
-                stats[k][i] = new Stats();
-            }
-        }
-        for (int k = 0; k < AP; k++) {
-            freq[k] = new Freq();
-            final int cpu = k;
-            updated[k] = new Runnable() { public void run() { updated(cpu); } };
+        super(SCHEMA);
+        for (int k = 0; k < snapshots.length; k++) {
+            snapshots[k] = new Snapshot(NP + 1);
         }
-        updated[AP] = new Runnable() { public void run() { updated(AP); } };
+        group = new Poller.Group(reader, online.reader, present.reader);
     }
 
     public void open(Object... args) {
-        for (int i = 0; i < freq.length; i++) {
-            freq[i].open("/sys/devices/system/cpu/cpu" + i + "/cpufreq/stats/time_in_state");
-        }
+        online.open(SYS + "online");
+        present.open(SYS + "present");
         super.open(args);
+        opened = true;
     }
 
     public void close() {
-        for (Freq f : freq) { f.close(); }
+        opened = false;
+        for (int i : cpus) { freq[i].close(); }
+        cpus = new int[0];
+        online.close();
+        present.close();
         super.close();
     }
 
-    public int columns() { return AP + 2; } // +2 because of (label & all)
+    public int columns() { return cpus.length + 2; } // +2 because of (label & all)
 
     public int rows() { return 12; }
 
     public void update(Runnable r) {
         done = r;
-        awaiting[AP] = true;
-        super.update(updated[AP]);
-        for (int i = 0; i < freq.length; i++) {
-            awaiting[i] = true;
-            freq[i].update(updated[i]);
-        }
+        Poller.getInstance().submit(group, collected);
+    }
+
+    /** @return number of samples available in history() */
+    public int samples() {
+        return history.size();
     }
 
-    public void updated(int cpu) {
-        awaiting[cpu] = false;
-        for (boolean a : awaiting) {
-            if (a) {
-                return;
+    /** @return cumulative counter value of the sample `ago' ticks back. cpu is -1 for "all" */
+    public long sample(int ago, int counter, int cpu) {
+        return history.get(ago, counter, cpu + 1);
+    }
+
+    /** @return System.nanoTime() of the sample `ago' ticks back */
+    public long timestamp(int ago) {
+        return history.timestamp(ago);
+    }
+
+    /** @return true if cpu was online in the sample `ago' ticks back. cpu is -1 for "all" */
+    public boolean online(int ago, int cpu) {
+        return history.present(ago, cpu + 1);
+    }
+
+    /** @return %% of busy time between samples `ago' + 1 and `ago', 0 if the cpu was offline in either
+        of them. cpu is -1 for "all" */
+    public float load(int ago, int cpu) {
+        synchronized (delta) {
+            long[] d = delta;
+            if (!history.delta(ago, cpu + 1, d)) {
+                return 0;
             }
+            return load(d[USER] + d[NICE] + d[SYSTEM] + d[IRQ] + d[SOFTIRQ], d[IDLE] + d[IOWAIT]);
         }
-        delta[0].scaled = 0;
-        for (int i = 0; i < freq.length; i++) {
-            delta[i+1].max    = freq[i].max;
-            delta[i+1].scaled = Math.round(freq[i].scale * 1000) / 10f;
-            delta[i+1].freq   = freq[i].average;
-            delta[0].scaled += freq[i].scale;
-        }
-        delta[0].max = freq[0].max;
-        delta[0].scaled = Math.round(delta[0].scaled / freq.length * 1000) / 10f;
-        for (int i = 0; i < load.length; i++) {
-            load[i] = Math.round((delta[i].load / 100) * (delta[i].scaled / 100) * 1000) / 10f ;
+    }
+
+    private void collected() {
+        acquire();
+        online.acquire();
+        present.acquire();
+        hotplug();
+        Snapshot s = snapshots[front().index];
+        float scaled = 0;
+        long max = 0;
+        for (int i : cpus) {
+            Freq f = freq[i];
+            f.acquire(); // frequencies are read by the same tick
+            s.max[i + 1]    = f.max();
+            s.scaled[i + 1] = Math.round(f.scale() * 1000) / 10f;
+            s.freq[i + 1]   = f.average();
+            scaled += f.scale();
+            max = Math.max(max, f.max());
         }
+        s.max[0] = max;
+        s.scaled[0] = cpus.length == 0 ? 0 : Math.round(scaled / cpus.length * 1000) / 10f;
         if (done != null) {
             done.run();
             done = null;
         }
     }
 
+    /* rebuilds the list of polled cores when cores go online or offline. Frequency readers of
+       offline cores are closed and the next tick reads only the files of online cores. */
+    private void hotplug() {
+        boolean[] on = online.cpus();
+        boolean[] in = present.cpus();
+        int n = 0;
+        for (int i = 0; i < NP; i++) {
+            if (on[i] && in[i]) { n++; }
+        }
+        boolean same = n == cpus.length;
+        for (int k = 0; k < cpus.length && same; k++) {
+            same = on[cpus[k]] && in[cpus[k]];
+        }
+        if (same || !opened) {
+            return;
+        }
+        for (int i : cpus) {
+            if (!on[i] || !in[i]) { freq[i].close(); }
+        }
+        int[] list = new int[n];
+        Runnable[] tasks = new Runnable[n + 3];
+        tasks[0] = reader;
+        tasks[1] = online.reader;
+        tasks[2] = present.reader;
+        n = 0;
+        for (int i = 0; i < NP; i++) {
+            if (on[i] && in[i]) {
+                if (freq[i] == null) {
+                    freq[i] = new Freq();
+                }
+                if (Arrays.binarySearch(cpus, i) < 0) {
+                    freq[i].open(SYS + "cpu" + i + "/cpufreq/stats/time_in_state");
+                }
+                tasks[n + 3] = freq[i].reader;
+                list[n++] = i;
+            }
+        }
+        cpus = list;
+        group = new Poller.Group(tasks);
+    }
+
     public TextInterface getText(int c, int r) {
-        Stats[] st = delta;
         text.reset();
-        if (measuring > 0) {
-            text.append("freq MHz"); // the longest
-        } else if (c == 0) {
+        if (c == 0) {
             switch (r) {
                 case  0: text.append("cpu"); break;
                 case  1: text.append("user"); break;
@@ -158,30 +246,29 @@ public final class CPU extends ProcFS {
                 case 11: text.append("scaled"); break;
             }
         } else {
-            c = c - 1;
+            Snapshot s = snapshots[front().index];
+            int i = c == 1 ? 0 : cpus[c - 2] + 1; // 0 for "all"
             switch (r) {
-                case  0: if (st[c].cpu < 0) { text.append("all"); } else { text.append(st[c].cpu); } break;
-                case  1: text.append(st[c].user); break;
-                case  2: text.append(st[c].nice); break;
-                case  3: text.append(st[c].system); break;
-                case  4: text.append(st[c].idle); break;
-                case  5: text.append(st[c].iowait); break;
-                case  6: text.append(st[c].irq); break;
-                case  7: text.append(st[c].softirq); break;
-                case  8: text.append(st[c].load); text.append('%'); break;
-                case  9: text.append((st[c].cpu < 0 ? st[c].max : st[c].freq) / 1000); break;
-                case 10: text.append(st[c].scaled); text.append('%'); break;
-                case 11: text.append(Math.round((st[c].scaled / 100f) * (st[c].load / 100f) * 1000) / 10f);
+                case  0: if (i == 0) { text.append("all"); } else { text.append(i - 1); } break;
+                case  1: case 2: case 3: case 4: case 5: case 6: case 7:
+                         text.append(s.rates[r - 1][i]); break;
+                case  8: text.append(s.load[i]); text.append('%'); break;
+                case  9: text.append((i == 0 ? s.max[i] : s.freq[i]) / 1000); break;
+                case 10: text.append(s.scaled[i]); text.append('%'); break;
+                case 11: text.append(Math.round((s.scaled[i] / 100f) * (s.load[i] / 100f) * 1000) / 10f);
                          text.append('%'); break;
             }
         }
         return text;
     }
 
-    public void measure(Paint paint) {
-        measuring++;
-        super.measure(paint);
-        measuring--;
+    protected int cells(int c) {
+        return 8; // "freq MHz" is the longest
+    }
+
+    /** rows are rates of /proc/stat counters, they all change every tick */
+    public boolean changed(int r) {
+        return true;
     }
 
 /*
@@ -191,116 +278,139 @@ public final class CPU extends ProcFS {
     cpu1 3416060 973 668160 38824837 3731 13 2 0 0 0
 */
 
-    protected void parse(Data d, int len, int count, boolean hasLastLineBreak) {
-
-        count = Math.min(count, AP + 1);
-        int c = 0;
-        int n = 0;
-        int start = 0;
-        int i = 0;
-        while (i < len && n < count) {
-            if (c < d.offsets.length && d.chars[i] != '\n') {
-                while (start < len && d.chars[start] != '\n' && Character.isWhitespace(d.chars[start])) {
-                    start++;
-                }
-                i = start;
-                while (i < len && !Character.isWhitespace(d.chars[i])) {
-                    i++;
+    protected void parsed(Data d) {
+        long[][] t = previous;
+        previous = sample;
+        sample = t;
+        boolean[] b = reported;
+        reported = sampled;
+        sampled = b;
+        for (int k = 0; k < COUNTERS; k++) {
+            Arrays.fill(sample[k], 0);
+        }
+        Arrays.fill(sampled, false);
+        for (int r = 0; r < d.rows; r++) {
+            buf.wrap(d.bytes, d.offsets[0][r], d.lengths[0][r]);
+            if (Text.startsWith(buf, "cpu")) {
+                int i = r == 0 ? 0 : (int)Numbers.parseLong(d.bytes, d.offsets[0][r] + 3, d.lengths[0][r] - 3) + 1;
+                if (i < 0 || i > NP) {
+                    continue;
                 }
-                d.offsets[c][n] = start;
-                d.lengths[c][n] = i - start;
-                start = i;
-                c++;
-            } else if (d.chars[i] == '\n') {
-                if (c < d.offsets.length) {
-                    d.offsets[c][n] = start;
-                    d.lengths[c][n] = i - start;
+                sampled[i] = true;
+                for (int k = 0; k < COUNTERS; k++) {
+                    sample[k][i] = value(d, k + 1, r);
                 }
-                n++;
-                start = i + 1;
-                c = 0;
             }
-            i++;
         }
-        if (!hasLastLineBreak && c < d.offsets.length) {
-            d.offsets[c][n] = start;
-            d.lengths[c][n] = len - start;
-            n++;
-        }
-        assertion(n == count);
-        textToStats(d, n);
+        history.append(d.nanos, sample, sampled);
+        rates(d.nanos - nanos, snapshots[d.index]);
+        nanos = d.nanos;
     }
 
-    private void textToStats(Data d, int n) {
-        Stats[] st = stats[ix];
-        for (int c = 0; c < n; c++) {
-            st[c].user = st[c].nice = st[c].system = st[c].idle = st[c].iowait = st[c].irq = st[c].softirq = 0;
-            st[c].load = 0;
-            st[c].nanos = System.nanoTime();
-        }
-        for (int c = 0; c < n; c++) {
-            int cpu = -1;
-            int rows = Math.min(d.offsets.length, 8); // ignore: steal, guest, guest_nice
-            for (int r = 0; r < rows; r++) {
-                buf.wrap(d.chars, d.offsets[r][c], d.lengths[r][c]);
-                if (r == 0 && Text.startsWith(buf, "cpu")) {
-                    cpu = c == 0 ? 0 : (int)Numbers.parseLong(buf, 3, buf.length() - 3) + 1;
-                }
-                if (cpu >= 0) {
-                    switch (r) {
-                        case 0: st[cpu].cpu = cpu - 1; break;
-                        case 1: st[cpu].user = Numbers.parseLong(buf, 0, buf.length()); break;
-                        case 2: st[cpu].nice = Numbers.parseLong(buf, 0, buf.length()); break;
-                        case 3: st[cpu].system = Numbers.parseLong(buf, 0, buf.length()); break;
-                        case 4: st[cpu].idle = Numbers.parseLong(buf, 0, buf.length()); break;
-                        case 5: st[cpu].iowait = Numbers.parseLong(buf, 0, buf.length()); break;
-                        case 6: st[cpu].irq = Numbers.parseLong(buf, 0, buf.length()); break;
-                        case 7: st[cpu].softirq = Numbers.parseLong(buf, 0, buf.length()); break;
-                        default: assertion("r=" + r);
-                    }
-                }
+    private void rates(long elapsed, Snapshot s) {
+        long milliseconds = nanos == 0 ? 0 : elapsed * 1000 / C.NANOS_IN_SECOND;
+        for (int k = 0; k < COUNTERS; k++) {
+            long[] rates = s.rates[k];
+            long[] s1 = sample[k];
+            long[] s0 = previous[k];
+            for (int i = 0; i < rates.length; i++) {
+                boolean both = sampled[i] && reported[i]; // core was online in both samples
+                rates[i] = milliseconds > 0 && both ? (s1[i] - s0[i]) * 1000 / milliseconds : 0;
             }
-            if (cpu >= 0) {
-                if (stats[1 - ix][0].user > 0) {
-                    st[cpu].load = load(cpu, stats[1 - ix], st);
-                }
+        }
+        for (int i = 0; i < s.load.length; i++) {
+            long busy = 0;
+            long idle = 0;
+            if (milliseconds > 0 && sampled[i] && reported[i]) {
+                busy = (sample[USER][i] + sample[NICE][i] + sample[SYSTEM][i] + sample[IRQ][i] + sample[SOFTIRQ][i]) -
+                       (previous[USER][i] + previous[NICE][i] + previous[SYSTEM][i] + previous[IRQ][i] + previous[SOFTIRQ][i]);
+                idle = (sample[IDLE][i] + sample[IOWAIT][i]) - (previous[IDLE][i] + previous[IOWAIT][i]);
             }
+            s.load[i] = load(busy, idle);
         }
-        delta(st);
     }
 
-    private void delta(Stats[] st) {
-        Stats[] prev = stats[1 - ix];
-        for (int cpu = 0; cpu < delta.length; cpu++) {
-            Stats dt = delta[cpu];
-            dt.cpu = st[cpu].cpu; // not a diff
-            dt.nanos = st[cpu].nanos - prev[cpu].nanos;
-            long milliseconds = dt.nanos * 1000 / C.NANOS_IN_SECOND;
-            if (milliseconds > 0) {
-                dt.user = (st[cpu].user - prev[cpu].user) * 1000 / milliseconds;
-                dt.nice = (st[cpu].nice - prev[cpu].nice) * 1000 / milliseconds;
-                dt.system = (st[cpu].system - prev[cpu].system) * 1000 / milliseconds;
-                dt.idle = (st[cpu].idle - prev[cpu].idle) * 1000 / milliseconds;
-                dt.iowait = (st[cpu].iowait - prev[cpu].iowait) * 1000 / milliseconds;
-                dt.irq = (st[cpu].irq - prev[cpu].irq) * 1000 / milliseconds;
-                dt.softirq = (st[cpu].softirq - prev[cpu].softirq) * 1000 / milliseconds;
-                dt.load = st[cpu].load; // not a diff
-            } else {
-                dt.user = dt.nice = dt.system = dt.idle = dt.iowait = dt.irq = dt.softirq = 0;
-                dt.load = 0;
-                dt.nanos = System.nanoTime();
+    private static float load(long busy, long idle) {
+        long total = busy + idle;
+        return total == 0 ? 0 : Math.round(busy * 1000f / total) / 10f;
+    }
+
+    /** @return number of possible cpus, cpu ids are in [0..possible() - 1] */
+    public static int cpus() {
+        return NP;
+    }
+
+    private static int possible() {
+        byte[] b = new byte[256];
+        int n = 0;
+        FileInputStream s = null;
+        try {
+            s = new FileInputStream(SYS + "possible");
+            int k;
+            while (n < b.length && (k = s.read(b, n, b.length - n)) > 0) {
+                n += k;
+            }
+        } catch (IOException e) {
+            n = 0;
+        } finally {
+            util.close(s);
+        }
+        int max = Runtime.getRuntime().availableProcessors() - 1;
+        for (int i = 0; i < n; i++) {
+            if (isDigit(b[i])) {
+                int k = i;
+                while (i < n && isDigit(b[i])) { i++; }
+                max = Math.max(max, (int)Numbers.parseLong(b, k, i - k));
             }
         }
+        return max + 1;
     }
 
-    private float load(int cpu, Stats[] stats0, Stats[] stats1) {
-        Stats s0 = stats0[cpu];
-        Stats s1 = stats1[cpu];
-        long busy_delta = (s1.user + s1.nice + s1.system + s1.irq + s1.softirq) -
-                          (s0.user + s0.nice + s0.system + s0.irq + s0.softirq);
-        long idle_delta = (s1.idle + s1.iowait) - (s0.idle + s0.iowait);
-        long total = busy_delta + idle_delta;
-        return total == 0 ? 0 : Math.round(busy_delta * 1000f / total) / 10f;
+    private static boolean isDigit(byte b) {
+        return '0' <= b && b <= '9';
+    }
+
+    /** Cores parses cpu range lists like "0-3,5" of "/sys/devices/system/cpu/online" and "present" */
+    public static final class Cores extends ProcFS {
+
+        private static final Schema SCHEMA = new Schema().limit(1).column("cpus", Schema.TEXT);
+        private final boolean[][] cpus = new boolean[BUFFERS][NP]; // cpus[Data.index][cpu]
+
+        public Cores() {
+            super(SCHEMA);
+            for (boolean[] set : cpus) {
+                Arrays.fill(set, true); // all possible cpus if the file is absent
+            }
+        }
+
+        /** @return cpus[cpu] is true if cpu is in the list */
+        public boolean[] cpus() {
+            return cpus[front().index];
+        }
+
+        protected void parsed(Data d) {
+            boolean[] set = cpus[d.index];
+            Arrays.fill(set, false);
+            byte[] b = d.bytes;
+            int i = d.offsets[0][0];
+            int end = d.rows == 0 ? i : i + d.lengths[0][0];
+            while (i < end && isDigit(b[i])) {
+                int k = i;
+                while (i < end && isDigit(b[i])) { i++; }
+                int from = (int)Numbers.parseLong(b, k, i - k);
+                int to = from;
+                if (i + 1 < end && b[i] == '-' && isDigit(b[i + 1])) {
+                    k = ++i;
+                    while (i < end && isDigit(b[i])) { i++; }
+                    to = (int)Numbers.parseLong(b, k, i - k);
+                }
+                for (int cpu = from; cpu <= to && cpu < set.length; cpu++) {
+                    set[cpu] = true;
+                }
+                if (i < end && b[i] == ',') { i++; }
+            }
+        }
+
     }
 
     public static final class Freq extends ProcFS {
@@ -314,96 +424,212 @@ public final class CPU extends ProcFS {
             499200 13839
             1000000 33473513
             1500000 17524650
-            This is simplistic implementation that assumes that all frequencies are
-            present, in order and always at the same rows. If it will be proven to
-            be incorrect - a bit more involving implementation is needed.
+            Some kernels list frequencies out of order and add or drop rows (e.g. when
+            thermal throttling changes the policy) so frequencies are mapped to slots of
+            a sorted index that only grows. Residency of a frequency is only counted when
+            its row was present in both the previous and the current tick.
+            Time is in USER_HZ (usually 10ms) units.
         */
-        public float  scale;   // [0..1] 1 being 100%
-        public long   average; // frequency in KHz
-        public long   max;     // max frequency in KHz
+        private static final Schema SCHEMA = new Schema().stable()
+                .column("freq", Schema.NUMBER)
+                .column("time", Schema.NUMBER);
+        private static final byte PREVIOUS = 1, CURRENT = 2; // row of the slot was present in previous/current tick
+
+        /* per snapshot residency histogram, only first `slots' entries are valid */
+        private static final class Histogram {
+            long[] freq = new long[16];  // KHz ascending
+            long[] time = new long[16];  // cumulative
+            long[] delta = new long[16]; // since previous tick
+            int slots;
+            float scale;  // [0..1] 1 being 100%
+            long average; // frequency in KHz
+            long max;     // max frequency in KHz
+        }
+
+        // sorted frequency index, writer only:
+        private long[] freqs = new long[16];
+        private long[] times = new long[16];
+        private byte[] state = new byte[16];
+        private int slots;
+        private float scale;  // of the last tick with non zero residency
+        private long average;
+        private final Histogram[] histograms = new Histogram[BUFFERS]; // histograms[Data.index]
+
+        public Freq() {
+            super(SCHEMA);
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new Histogram();
+            }
+        }
+
+        /** @return number of distinct frequencies seen so far */
+        public int slots() {
+            return histograms[front().index].slots;
+        }
+
+        /** @return frequency in KHz of the slot, slots are in ascending frequency order */
+        public long frequency(int slot) {
+            return histograms[front().index].freq[slot];
+        }
+
+        /** @return [0..1] average frequency over max frequency since the previous update, 1 being 100% */
+        public float scale() {
+            return histograms[front().index].scale;
+        }
+
+        /** @return average frequency since the previous update in KHz */
+        public long average() {
+            return histograms[front().index].average;
+        }
+
+        /** @return max frequency in KHz */
+        public long max() {
+            return histograms[front().index].max;
+        }
+
+        /** @return cumulative time spent at frequency of the slot in USER_HZ */
+        public long time(int slot) {
+            return histograms[front().index].time[slot];
+        }
+
+        /** @return time spent at frequency of the slot since the previous update in USER_HZ */
+        public long residency(int slot) {
+            return histograms[front().index].delta[slot];
+        }
+
+        protected void parsed(Data d) {
+            for (int s = 0; s < slots; s++) {
+                state[s] = (state[s] & CURRENT) != 0 ? PREVIOUS : 0;
+            }
+            Histogram h = histograms[d.index];
+            if (h.delta.length < freqs.length) {
+                h.delta = new long[freqs.length];
+            }
+            Arrays.fill(h.delta, 0);
+            long cycles = 0; // total cpu cycles for the last delta
+            long total = 0;  // time
+            long m = 0;      // frequency
+            for (int r = 0; r < d.rows; r++) {
+                long f = value(d, 0, r);
+                long t = value(d, 1, r);
+                int s = slot(f, h);
+                long delta = (state[s] & PREVIOUS) != 0 && t >= times[s] ? t - times[s] : 0;
+                times[s] = t;
+                state[s] |= CURRENT;
+                h.delta[s] = delta;
+                cycles += f * delta;
+                total += delta;
+                m = Math.max(m, f);
+            }
+            if (h.freq.length < freqs.length) {
+                h.freq = new long[freqs.length];
+                h.time = new long[freqs.length];
+            }
+            System.arraycopy(freqs, 0, h.freq, 0, slots);
+            System.arraycopy(times, 0, h.time, 0, slots);
+            h.slots = slots;
+            if (total > 0) {
+                scale = (float)cycles / (m * total);
+                average = cycles / total;
+            }
+            h.max = m;
+            h.scale = scale;
+            h.average = average;
+        }
 
+        /* @return slot of the frequency, inserts new slot keeping the index sorted */
+        private int slot(long f, Histogram h) {
+            int s = Arrays.binarySearch(freqs, 0, slots, f);
+            if (s >= 0) {
+                return s;
+            }
+            s = -s - 1;
+            if (slots == freqs.length) {
+                freqs = Arrays.copyOf(freqs, slots * 2);
+                times = Arrays.copyOf(times, slots * 2);
+                state = Arrays.copyOf(state, slots * 2);
+                h.delta = Arrays.copyOf(h.delta, slots * 2);
+            }
+            System.arraycopy(freqs, s, freqs, s + 1, slots - s);
+            System.arraycopy(times, s, times, s + 1, slots - s);
+            System.arraycopy(state, s, state, s + 1, slots - s);
+            System.arraycopy(h.delta, s, h.delta, s + 1, slots - s);
+            freqs[s] = f;
+            times[s] = 0;
+            state[s] = 0;
+            h.delta[s] = 0;
+            slots++;
+            return s;
+        }
+
+    }
+
+    /** Residency is the per frequency time_in_state histogram of a single cpu:
+        frequency, cumulative time and share of the time since the previous update. open(cpu) */
+    public static final class Residency implements DataModel {
+
+        private final Freq freq = new Freq();
+        private final Text text = new Text(32);
+        private final Rect bounds = new Rect();
         private Runnable done;
         private final Runnable updated = new Runnable() { public void run() { updated(); } };
-        private long[] freq0;
-        private long[] time0;
-        private long[] freq1;
-        private long[] time1;
 
-        public Freq() {
-            super(2);
+        public void open(Object... args) {
+            freq.open(SYS + "cpu" + args[0] + "/cpufreq/stats/time_in_state");
+        }
+
+        public void close() {
+            freq.close();
         }
 
         public void update(Runnable r) {
             done = r;
-            super.update(updated);
-        }
-
-        public void updated() {
-            if (freq0 != null) { // is procFS file open and parsed?
-                assertion(freq0.length == rows() ? true : format("expected %d freq0.length=%d", rows(), freq0.length));
-                int n = freq0.length;
-                System.arraycopy(freq0, 0, freq1, 0, n);
-                System.arraycopy(time0, 0, time1, 0, n);
-                for (int r = 0; r < n; r++) {
-                    freq0[r] = Numbers.parseLong(super.getText(0, r));
-                    // if this assertion does not hold switch to O(n^2) search for frequencies
-                    assertion(freq1[r] == 0 || freq1[r] == freq0[r]);
-                    time0[r] = Numbers.parseLong(super.getText(1, r));
-                }
-                if (freq1[0] != 0) {
-                    long cycles = 0; // total cpu cycles for the last delta
-                    max = 0;    // frequency
-                    long total = 0;  // time
-                    for (int r = 0; r < n; r++) {
-                        long delta = time0[r] - time1[r];
-                        cycles += freq0[r] * delta;
-                        total += delta;
-                        max = Math.max(max, freq0[r]);
-                    }
-                    if (total > 0) {
-                        scale = (float)cycles / (max * total);
-                        average = cycles / total;
-                    }
-                }
-            }
+            freq.update(updated);
+        }
+
+        private void updated() {
             if (done != null) {
-                done.run();
+                Runnable r = done;
                 done = null;
+                r.run();
             }
         }
 
-        protected void parse(Data d, int len, int count, boolean hasLastLineBreak) {
-            int c = 0;
-            int n = 0;
-            int start = 0;
-            int i = 0;
-            while (i < len) {
-                if (c == 0 && d.chars[i] == ' ') {
-                    d.offsets[0][n] = start;
-                    d.lengths[0][n] = i - start;
-                    start = i + 1;
-                    c++;
-                } else if (d.chars[i] == '\n') {
-                    d.offsets[1][n] = start;
-                    d.lengths[1][n] = i - start;
-                    n++;
-                    start = i + 1;
-                    c = 0;
+        public int columns() {
+            return 3;
+        }
+
+        public int rows() {
+            return freq.slots() + 1;
+        }
+
+        public boolean changed(int r) {
+            return true;
+        }
+
+        public TextInterface getText(int c, int r) {
+            text.reset();
+            if (r == 0) {
+                text.append(c == 0 ? "MHz" : c == 1 ? "time s" : "last");
+            } else {
+                int s = r - 1;
+                switch (c) {
+                    case 0: text.append(freq.frequency(s) / 1000); break;
+                    case 1: text.append(freq.time(s) / 100); break; // USER_HZ
+                    case 2: {
+                        long total = 0;
+                        for (int i = 0; i < freq.slots(); i++) { total += freq.residency(i); }
+                        text.append(total == 0 ? 0 : Math.round(freq.residency(s) * 1000f / total) / 10f);
+                        text.append('%');
+                        break;
+                    }
                 }
-                i++;
-            }
-            if (!hasLastLineBreak) {
-                d.offsets[1][n] = start;
-                d.lengths[1][n] = len - start;
-                n++;
-            }
-            assertion(n == count);
-            if (freq0 == null || freq0.length != count) {
-                freq0 = new long[count];
-                time0 = new long[count];
-                freq1 = new long[count];
-                time1 = new long[count];
             }
+            return text;
+        }
+
+        public Rect bounds(int c, int r, Paint paint) {
+            return Metrics.of(paint).bounds(7, bounds); // "9999999" ~115 days in seconds
         }
 
     }
@@ -41,6 +41,8 @@ public interface DataModel extends Closeable {
     void update(Runnable done);
     int columns();
     int rows();
+    /** @return true if any cell of the row may differ from what was shown before the last update() */
+    boolean changed(int row);
     Rect bounds(int column, int row, Paint paint);
     TextInterface getText(int column, int row);
 
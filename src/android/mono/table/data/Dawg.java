@@ -0,0 +1,408 @@
+/*  Copyright (c) 2012, Leo Kuznetsov
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+    * Neither the name of the {organization} nor the names of its
+      contributors may be used to endorse or promote products derived from
+      this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+    DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+    FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+    DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+    SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+    CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+    OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+    OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package android.mono.table.data;
+
+import java.nio.*;
+import java.util.*;
+
+/** Dawg is a compiled dictionary of Words rows: a minimal acyclic finite state automaton (directed
+    acyclic word graph) serialized into a compact byte array that is used in place, so it can be
+    memory mapped from the cache file. Common prefixes and suffixes of the words are stored once.
+    Every transition carries the number of words below it, so the lexicographic rank of a word is
+    counted while walking it and maps back to the Words row; completions of a prefix are a single
+    contiguous range of ranks.
+    Layout: header, states, rows[words] (Words row of each word in lexicographic order) packed in `bits'
+    bits each and followed by 7 bytes of padding, so an entry is a single getLong(). rows[] is omitted
+    (bits = 0) when ranks are rows, i.e. the word list is sorted and has no duplicates.
+    State: varint(transitions << 1 | final) followed by sorted transitions, each of them
+    varint(label), varint(offset of the state - offset of the target), varint(words below target).
+    Words below the last transition are not written: the walk knows the words below the state and
+    subtracts the other transitions (single transition states are the most common ones).
+    Children are written before parents and the root state is the last one.
+ */
+
+public final class Dawg {
+
+    // magic, version, resource length, resource checksum, words, root offset, size of states, bits of rows[]
+    private static final int MAGIC = 0x44415747, VERSION = 2; // "DAWG"
+    static final int HEADER = 40;
+    private static final int PADDING = 7;
+
+    private final ByteBuffer buffer;
+    private final int words;
+    private final int root;
+    private final int rows; // offset of rows[]
+    private final int bits; // per entry of rows[] or 0
+
+    /** @param b compiled dictionary, e.g. mapped cache file */
+    public Dawg(ByteBuffer b) {
+        buffer = b.order() == ByteOrder.BIG_ENDIAN ? b : b.duplicate().order(ByteOrder.BIG_ENDIAN);
+        if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("not a compiled dictionary");
+        }
+        words = buffer.getInt(24);
+        root = HEADER + buffer.getInt(28);
+        rows = HEADER + buffer.getInt(32);
+        bits = buffer.getInt(36);
+        if (words < 0 || root >= rows || bits < 0 || bits > 31 || rows + packed(words, bits) != buffer.capacity()) {
+            throw new IllegalArgumentException("corrupted dictionary");
+        }
+    }
+
+    /* @return bytes of rows[] */
+    private static long packed(int words, int bits) {
+        return bits == 0 ? 0 : ((long)words * bits + 7) / 8 + PADDING;
+    }
+
+    /* @return Words row of the word of the lexicographic rank */
+    private int row(int rank) {
+        if (bits == 0) {
+            return rank;
+        }
+        long p = (long)rank * bits;
+        long x = buffer.getLong(rows + (int)(p >>> 3));
+        return (int)((x << (p & 7)) >>> (64 - bits));
+    }
+
+    /** number of distinct words */
+    public int words() {
+        return words;
+    }
+
+    /** length of the resource the dictionary was compiled from */
+    long length() {
+        return buffer.getLong(8);
+    }
+
+    long checksum() {
+        return buffer.getLong(16);
+    }
+
+    public boolean contains(CharSequence w) {
+        return row(w) >= 0;
+    }
+
+    /** @return Words row of the word or -1 if it is not in the dictionary */
+    public int row(CharSequence w) {
+        int[] r = new int[WALK];
+        return walk(w, r) && (buffer.get(r[STATE]) & 1) != 0 ? row(r[RANK]) : -1;
+    }
+
+    /** writes Words rows of up to to.length words starting with the prefix in lexicographic order
+        @return number of completions (may be greater than to.length) */
+    public int completions(CharSequence prefix, int[] to) {
+        int[] r = new int[WALK];
+        if (!walk(prefix, r)) {
+            return 0;
+        }
+        int n = r[BELOW];
+        for (int i = 0; i < Math.min(n, to.length); i++) {
+            to[i] = row(r[RANK] + i);
+        }
+        return n;
+    }
+
+    private static final int POSITION = 0, RANK = 1, STATE = 2, BELOW = 3, WALK = 4;
+
+    /* walks the prefix, fills r[RANK] number of smaller words, r[STATE] offset of the reached state and
+       r[BELOW] number of words that start with the prefix. @return false if there is no such path */
+    private boolean walk(CharSequence w, int[] r) {
+        int s = root;
+        r[RANK] = 0;
+        r[BELOW] = words;
+        for (int i = 0; i < w.length(); i++) {
+            char c = w.charAt(i);
+            r[POSITION] = s;
+            int header = varint(r);
+            r[RANK] += header & 1; // the word ending here is a prefix of w, so it is smaller
+            int below = r[BELOW] - (header & 1); // words below the transitions not read yet
+            int next = -1;
+            for (int t = header >>> 1; t > 0 && next < 0; t--) {
+                int label = varint(r);
+                int delta = varint(r);
+                int count = t > 1 ? varint(r) : below;
+                below -= count;
+                if (label == c) {
+                    next = s - delta;
+                    r[BELOW] = count;
+                } else if (label > c) {
+                    return false;
+                } else {
+                    r[RANK] += count;
+                }
+            }
+            if (next < 0) {
+                return false;
+            }
+            s = next;
+        }
+        r[STATE] = s;
+        return true;
+    }
+
+    private int varint(int[] r) {
+        int v = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get(r[POSITION]++);
+            v |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return v;
+            }
+        }
+    }
+
+    /** compiles the first n rows of the words (Daciuk et al. incremental construction from sorted input),
+        duplicates map to the first of their rows */
+    static byte[] compile(Words w, int n, long length, long checksum) {
+        int[] sorted = new int[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = i;
+        }
+        sort(w, sorted, new int[n], 0, n);
+        HashMap<State, State> register = new HashMap<State, State>();
+        State[] path = new State[17];
+        path[0] = new State();
+        char[] previous = new char[16];
+        int depth = 0; // length of the previous word
+        char[] word = new char[16];
+        int[] order = new int[n]; // rows of distinct words in lexicographic order
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            int row = sorted[i];
+            if (i > 0 && w.compare(sorted[i - 1], row) == 0) {
+                continue;
+            }
+            int len = w.length(row);
+            if (word.length < len) {
+                word = Arrays.copyOf(word, len * 3 / 2);
+                previous = Arrays.copyOf(previous, word.length);
+                path = Arrays.copyOf(path, word.length + 1);
+            }
+            w.chars(row, 0, word, len);
+            int common = 0;
+            while (common < Math.min(len, depth) && word[common] == previous[common]) {
+                common++;
+            }
+            minimize(register, path, depth, common);
+            for (int k = common; k < len; k++) {
+                path[k + 1] = path[k].add(word[k]);
+            }
+            path[len].last = true;
+            char[] t = previous;
+            previous = word;
+            word = t;
+            depth = len;
+            order[count++] = row;
+        }
+        minimize(register, path, depth, 0);
+        return serialize(path[0], order, count, length, checksum);
+    }
+
+    /* replaces states of the previous word below `common' with equivalent registered ones */
+    private static void minimize(HashMap<State, State> register, State[] path, int depth, int common) {
+        for (int k = depth; k > common; k--) {
+            State s = path[k];
+            State r = register.get(s);
+            if (r == null) {
+                register.put(s, s);
+            } else {
+                path[k - 1].next[path[k - 1].n - 1] = r;
+            }
+        }
+    }
+
+    /* post order: children are written before their parents */
+    private static byte[] serialize(State root, int[] order, int count, long length, long checksum) {
+        Output out = new Output();
+        out.position = HEADER;
+        State[] stack = new State[16];
+        int[] child = new int[16];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            State s = stack[top - 1];
+            int c = child[top - 1];
+            if (c < s.n) {
+                child[top - 1]++;
+                State t = s.next[c];
+                if (t.offset < 0) {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                        child = Arrays.copyOf(child, top * 2);
+                    }
+                    stack[top] = t;
+                    child[top] = 0;
+                    top++;
+                }
+                continue;
+            }
+            top--;
+            s.offset = out.position;
+            s.count = s.last ? 1 : 0;
+            out.varint(s.n << 1 | (s.last ? 1 : 0));
+            for (int i = 0; i < s.n; i++) {
+                State t = s.next[i];
+                out.varint(s.labels[i]);
+                out.varint(s.offset - t.offset);
+                if (i < s.n - 1) {
+                    out.varint(t.count);
+                }
+                s.count += t.count;
+            }
+        }
+        int states = out.position - HEADER;
+        int max = 0; // rows[] is not needed if every rank is its row
+        for (int i = 0; i < count; i++) {
+            max = order[i] != i ? Math.max(max, order[i]) : max;
+        }
+        int bits = max == 0 ? 0 : 32 - Integer.numberOfLeadingZeros(Math.max(max, count - 1));
+        int size = (int)packed(count, bits);
+        out.ensure(size);
+        for (int i = 0; i < count && bits > 0; i++) {
+            long p = (long)i * bits;
+            for (int k = bits - 1; k >= 0; k--, p++) {
+                if ((order[i] >>> k & 1) != 0) {
+                    out.bytes[out.position + (int)(p >>> 3)] |= 0x80 >>> (p & 7);
+                }
+            }
+        }
+        ByteBuffer b = ByteBuffer.wrap(out.bytes);
+        b.putInt(0, MAGIC);
+        b.putInt(4, VERSION);
+        b.putLong(8, length);
+        b.putLong(16, checksum);
+        b.putInt(24, count);
+        b.putInt(28, root.offset - HEADER);
+        b.putInt(32, states);
+        b.putInt(36, bits);
+        return Arrays.copyOf(out.bytes, out.position + size);
+    }
+
+    /* stable merge sort of rows by text */
+    private static void sort(Words w, int[] a, int[] t, int from, int to) {
+        if (to - from < 16) {
+            for (int i = from + 1; i < to; i++) {
+                int r = a[i];
+                int j = i;
+                while (j > from && w.compare(a[j - 1], r) > 0) {
+                    a[j] = a[j - 1];
+                    j--;
+                }
+                a[j] = r;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sort(w, a, t, from, mid);
+        sort(w, a, t, mid, to);
+        if (w.compare(a[mid - 1], a[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(a, from, t, from, to - from);
+        int i = from;
+        int j = mid;
+        for (int k = from; k < to; k++) {
+            a[k] = j >= to || i < mid && w.compare(t[i], t[j]) <= 0 ? t[i++] : t[j++];
+        }
+    }
+
+    /* mutable builder state, frozen once registered */
+    private static final class State {
+
+        char[] labels = new char[2];
+        State[] next = new State[2];
+        int n;
+        boolean last; // accepting: a word ends here
+        int offset = -1;
+        int count;
+        private int hash;
+
+        State add(char label) {
+            if (n == labels.length) {
+                labels = Arrays.copyOf(labels, n * 2);
+                next = Arrays.copyOf(next, n * 2);
+            }
+            State s = new State();
+            labels[n] = label;
+            next[n] = s;
+            n++;
+            return s;
+        }
+
+        public int hashCode() {
+            if (hash == 0) {
+                int h = last ? 1 : 2;
+                for (int i = 0; i < n; i++) {
+                    h = h * 31 + labels[i];
+                    h = h * 31 + System.identityHashCode(next[i]);
+                }
+                hash = h == 0 ? 1 : h;
+            }
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            State s = (State)o;
+            if (s.last != last || s.n != n) {
+                return false;
+            }
+            for (int i = 0; i < n; i++) {
+                if (s.labels[i] != labels[i] || s.next[i] != next[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+    private static final class Output {
+
+        byte[] bytes = new byte[4096];
+        int position;
+
+        void ensure(int n) {
+            if (position + n > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(position + n, bytes.length * 2));
+            }
+        }
+
+        void varint(int v) {
+            ensure(5);
+            while ((v & ~0x7F) != 0) {
+                bytes[position++] = (byte)((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            bytes[position++] = (byte)v;
+        }
+
+    }
+
+}
@@ -0,0 +1,120 @@
+/*  Copyright (c) 2012, Leo Kuznetsov
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+    * Neither the name of the {organization} nor the names of its
+      contributors may be used to endorse or promote products derived from
+      this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+    DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+    FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+    DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+    SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+    CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+    OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+    OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package android.mono.table.data;
+
+import java.util.*;
+
+/** History is a fixed capacity ring buffer of the last samples. Each sample is a set of counters
+    (one row per counter indexed by column e.g. cpu) stored in a single primitive array, so neither
+    appending nor querying allocates. Each sample records which columns were present (e.g. online
+    cores). Single writer appends, any thread may query; a query that needs several values of the
+    same samples must be a single call because append() moves the head between calls.
+ */
+
+public final class History {
+
+    private final long[][] ring; // ring[slot][counter * width + column]
+    private final long[] timestamps;
+    private final boolean[][] present; // present[slot][column]
+    private final int counters;
+    private final int width;
+    private int head = -1; // slot of the newest sample
+    private int size;
+
+    public History(int capacity, int counters, int width) {
+        this.counters = counters;
+        this.width = width;
+        ring = new long[capacity][counters * width];
+        timestamps = new long[capacity];
+        present = new boolean[capacity][width];
+    }
+
+    public int capacity() {
+        return ring.length;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /** appends sample[counter][column] taken at nanoTime, the oldest sample is dropped when full.
+        columns[column] is false for columns absent from the sample (their counters are not valid) */
+    public synchronized void append(long nanoTime, long[][] sample, boolean[] columns) {
+        head = (head + 1) % ring.length;
+        size = Math.min(size + 1, ring.length);
+        timestamps[head] = nanoTime;
+        System.arraycopy(columns, 0, present[head], 0, width);
+        long[] slot = ring[head];
+        for (int k = 0; k < counters; k++) {
+            System.arraycopy(sample[k], 0, slot, k * width, width);
+        }
+    }
+
+    /** @param ago 0 for the newest sample, size() - 1 for the oldest */
+    public synchronized long get(int ago, int counter, int column) {
+        return ring[slot(ago)][counter * width + column];
+    }
+
+    public synchronized boolean present(int ago, int column) {
+        return present[slot(ago)][column];
+    }
+
+    /** to[counter] = value(ago) - value(ago + 1) of the column for all counters, taken under one lock.
+        @return false (and `to' is zeroed) if there is no older sample or the column is absent in either */
+    public synchronized boolean delta(int ago, int column, long[] to) {
+        if (ago + 1 >= size || !present[slot(ago)][column] || !present[slot(ago + 1)][column]) {
+            Arrays.fill(to, 0, counters, 0);
+            return false;
+        }
+        long[] s1 = ring[slot(ago)];
+        long[] s0 = ring[slot(ago + 1)];
+        for (int k = 0; k < counters; k++) {
+            to[k] = s1[k * width + column] - s0[k * width + column];
+        }
+        return true;
+    }
+
+    public synchronized long timestamp(int ago) {
+        return timestamps[slot(ago)];
+    }
+
+    /** copies counter values of all columns of the sample into `to' */
+    public synchronized void get(int ago, int counter, long[] to) {
+        System.arraycopy(ring[slot(ago)], counter * width, to, 0, width);
+    }
+
+    private int slot(int ago) {
+        if (ago < 0 || ago >= size) {
+            throw new IndexOutOfBoundsException("ago=" + ago + " size=" + size);
+        }
+        return (head - ago + ring.length) % ring.length;
+    }
+
+}
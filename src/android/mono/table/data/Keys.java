@@ -0,0 +1,126 @@
+/*  Copyright (c) 2012, Leo Kuznetsov
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+    * Neither the name of the {organization} nor the names of its
+      contributors may be used to endorse or promote products derived from
+      this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+    DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+    FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+    DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+    SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+    CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+    OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+    OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package android.mono.table.data;
+
+/** Keys is immutable open addressing hash index of row labels (column 0) of a Schema.stable()
+    ProcFS source. It is built once per layout and shared by all snapshots of that layout.
+    Trailing label terminator is not part of the key: "MemAvailable" finds "MemAvailable:" row.
+ */
+
+final class Keys {
+
+    final long layout;
+    private final byte[] labels;
+    private final int[] starts;
+    private final int[] table; // row + 1 or 0 for empty slot
+    private final int mask;
+    private final char terminator;
+
+    Keys(long fingerprint, byte[] bytes, int[] s, int rows, char t) {
+        layout = fingerprint;
+        terminator = t;
+        starts = new int[rows + 1];
+        System.arraycopy(s, 0, starts, 0, rows + 1);
+        labels = new byte[starts[rows]];
+        System.arraycopy(bytes, 0, labels, 0, labels.length);
+        int n = Integer.highestOneBit(Math.max(rows, 1) * 2) * 2; // load factor <= 0.5
+        table = new int[n];
+        mask = n - 1;
+        for (int r = 0; r < rows; r++) {
+            int ofs = starts[r];
+            int len = length(r);
+            int h = hash(labels, ofs, len) & mask;
+            while (table[h] != 0) {
+                if (equals(table[h] - 1, labels, ofs, len)) {
+                    break; // duplicate label: first row wins
+                }
+                h = (h + 1) & mask;
+            }
+            if (table[h] == 0) {
+                table[h] = r + 1;
+            }
+        }
+    }
+
+    /** @return row of the key or -1 */
+    int row(CharSequence key) {
+        int len = key.length();
+        if (len > 0 && terminator != 0 && key.charAt(len - 1) == terminator) {
+            len--;
+        }
+        int h = 0x811c9dc5;
+        for (int i = 0; i < len; i++) {
+            h = (h ^ (key.charAt(i) & 0xFF)) * 0x01000193;
+        }
+        h &= mask;
+        while (table[h] != 0) {
+            int r = table[h] - 1;
+            if (length(r) == len) {
+                int ofs = starts[r];
+                int i = 0;
+                while (i < len && labels[ofs + i] == key.charAt(i)) {
+                    i++;
+                }
+                if (i == len) {
+                    return r;
+                }
+            }
+            h = (h + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int length(int r) {
+        int len = starts[r + 1] - starts[r];
+        return len > 0 && terminator != 0 && labels[starts[r] + len - 1] == terminator ? len - 1 : len;
+    }
+
+    private boolean equals(int r, byte[] b, int ofs, int len) {
+        if (length(r) != len) {
+            return false;
+        }
+        int k = starts[r];
+        for (int i = 0; i < len; i++) {
+            if (labels[k + i] != b[ofs + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] b, int ofs, int len) { // FNV-1a
+        int h = 0x811c9dc5;
+        for (int i = 0; i < len; i++) {
+            h = (h ^ (b[ofs + i] & 0xFF)) * 0x01000193;
+        }
+        return h;
+    }
+
+}
@@ -29,52 +29,15 @@
 
 package android.mono.table.data;
 
-import static android.mono.table.etc.util.*;
-
 public final class MemInfo extends ProcFS {
 
-    public MemInfo() {
-        super(3);
-    }
+    private static final Schema SCHEMA = new Schema().stable()
+            .column("name", Schema.TEXT, ':')
+            .column("value", Schema.NUMBER)
+            .column("unit", Schema.TEXT);
 
-    protected void parse(Data d, int len, int count, boolean hasLastLineBreak) {
-        int c = 0;
-        int n = 0;
-        int start = 0;
-        int i = 0;
-        while (i < len) {
-            if (c == 0 && d.chars[i] == ':') {
-                d.offsets[0][n] = start;
-                d.lengths[0][n] = i - start + 1;
-                start = i + 1;
-                c++;
-            } else if (c == 1) {
-                while (start < len && d.chars[start] == ' ') {
-                    start++;
-                }
-                i = start;
-                while (i < len && d.chars[i] != ' ') {
-                    i++;
-                }
-                d.offsets[1][n] = start;
-                d.lengths[1][n] = i - start;
-                c++;
-                start = i;
-            } else if (d.chars[i] == '\n') {
-                d.offsets[2][n] = start;
-                d.lengths[2][n] = i - start;
-                n++;
-                start = i + 1;
-                c = 0;
-            }
-            i++;
-        }
-        if (!hasLastLineBreak) {
-            d.offsets[2][n] = start;
-            d.lengths[2][n] = len - start;
-            n++;
-        }
-        assertion(n == count);
+    public MemInfo() {
+        super(SCHEMA);
     }
 
 }
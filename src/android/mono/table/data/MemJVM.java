@@ -40,7 +40,7 @@ public class MemJVM implements DataModel {
     private Text[] head;
     private Text[] text;
     private int[] counters = EMPTY_INT;
-    private Rect bounds;
+    private final Rect bounds = new Rect();
 
     private static final int[] EMPTY_INT = new int[0];
     private static final CharSequence[] EMPTY_CS = new CharSequence[0];
@@ -113,17 +113,16 @@ public class MemJVM implements DataModel {
         return 2;
     }
 
+    public boolean changed(int r) {
+        return r > 0;
+    }
+
     public TextInterface getText(int c, int r) {
         return r == 0 ? head[c] : text[c];
     }
 
     public Rect bounds(int c, int r, Paint paint) {
-        if (bounds == null) {
-            bounds = new Rect();
-            String s = "9999999"; // 9,999MB
-            paint.getTextBounds(s, 0, s.length(), bounds);
-        }
-        return bounds;
+        return Metrics.of(paint).bounds(7, bounds); // "9999999" 9,999MB
     }
 
 }
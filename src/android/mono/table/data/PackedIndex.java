@@ -0,0 +1,214 @@
+/*  Copyright (c) 2012, Leo Kuznetsov
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+    * Neither the name of the {organization} nor the names of its
+      contributors may be used to endorse or promote products derived from
+      this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+    DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+    FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+    DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+    SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+    CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+    OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+    OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package android.mono.table.data;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+import static android.mono.table.etc.util.*;
+
+/** PackedIndex is an append only monotonic long sequence (e.g. start offsets of text lines) in about
+    2 bytes per entry: absolute checkpoint for every block of 64 entries and 16 bit deltas from the
+    checkpoint. Deltas that do not fit are marked WIDE and kept in an int block. get() is O(1).
+    Single writer appends, entries below a size() published by the writer (through a volatile) are
+    readable by any thread: entries live in fixed size pages that are never reallocated or modified
+    once written, only the directory of pages grows and it is swapped through a volatile after the copy.
+    write() serializes the index and PackedIndex(ByteBuffer) maps it back read only in the same layout:
+    int size, int blocks, int spilled, int 0, long checkpoints[blocks], int slots[blocks] (block of
+    `spill' or -1), int spill[spilled * 64], char deltas[size].
+ */
+
+final class PackedIndex {
+
+    private static final int SHIFT = 6, BLOCK = 1 << SHIFT, MASK = BLOCK - 1;
+    private static final int PAGE_SHIFT = 12, PAGE = 1 << PAGE_SHIFT, BLOCKS = PAGE >> SHIFT;
+    private static final char WIDE = 0xFFFF;
+    private static final int HEADER = 16;
+
+    private static final class Page {
+        final long[] checkpoints = new long[BLOCKS];
+        final char[] deltas = new char[PAGE];
+        int[][] wide; // wide[block] holds deltas of the entries marked WIDE
+    }
+
+    private volatile Page[] pages;
+    private int size;
+    // mapped read only form
+    private final LongBuffer checkpoints;
+    private final IntBuffer slots;
+    private final IntBuffer spill;
+    private final CharBuffer deltas;
+
+    PackedIndex(int capacity) {
+        pages = new Page[Math.max(1, (capacity + PAGE - 1) >> PAGE_SHIFT)];
+        checkpoints = null;
+        slots = null;
+        spill = null;
+        deltas = null;
+    }
+
+    /** read only view of an index serialized by write(), the buffer is not copied */
+    PackedIndex(ByteBuffer b) {
+        long length = b.remaining();
+        int n = length < HEADER ? -1 : b.getInt(b.position());
+        int blocks = length < HEADER ? -1 : b.getInt(b.position() + 4);
+        int spilled = length < HEADER ? -1 : b.getInt(b.position() + 8);
+        if (n < 0 || blocks != (n + MASK) >> SHIFT || spilled < 0 || spilled > blocks ||
+            length != bytes(n, blocks, spilled)) {
+            throw new IllegalArgumentException("corrupted index");
+        }
+        ByteBuffer v = b.slice();
+        v.position(HEADER);
+        checkpoints = v.slice().asLongBuffer();
+        v.position(HEADER + blocks * 8);
+        slots = v.slice().asIntBuffer();
+        v.position(HEADER + blocks * 12);
+        spill = v.slice().asIntBuffer();
+        v.position(HEADER + blocks * 12 + spilled * BLOCK * 4);
+        deltas = v.slice().asCharBuffer();
+        for (int k = 0; k < blocks; k++) {
+            if (slots.get(k) < -1 || slots.get(k) >= spilled) {
+                throw new IllegalArgumentException("corrupted index");
+            }
+        }
+        size = n;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long get(int i) {
+        if (deltas != null) {
+            int b = i >> SHIFT;
+            char d = deltas.get(i);
+            return checkpoints.get(b) + (d != WIDE ? d : spill.get(slots.get(b) * BLOCK + (i & MASK)));
+        }
+        Page p = pages[i >> PAGE_SHIFT];
+        int k = i & (PAGE - 1);
+        char d = p.deltas[k];
+        return p.checkpoints[k >> SHIFT] + (d != WIDE ? d : p.wide[k >> SHIFT][k & MASK]);
+    }
+
+    void add(long value) {
+        assertion(deltas == null ? true : "mapped index is read only");
+        Page[] ps = pages;
+        int n = size >> PAGE_SHIFT;
+        if (n == ps.length) {
+            ps = Arrays.copyOf(ps, ps.length * 3 / 2 + 1);
+            pages = ps; // readers see either directory, both hold all published pages
+        }
+        if (ps[n] == null) {
+            ps[n] = new Page();
+        }
+        Page p = ps[n];
+        int k = size & (PAGE - 1);
+        int b = k >> SHIFT;
+        if ((k & MASK) == 0) {
+            p.checkpoints[b] = value;
+        }
+        long d = value - p.checkpoints[b];
+        if (d >= WIDE) {
+            if (p.wide == null) {
+                p.wide = new int[BLOCKS][];
+            }
+            if (p.wide[b] == null) {
+                p.wide[b] = new int[BLOCK];
+            }
+            p.wide[b][k & MASK] = (int)d; // before the mark
+            p.deltas[k] = WIDE;
+        } else {
+            p.deltas[k] = (char)d;
+        }
+        size++;
+    }
+
+    /** @return number of bytes write() produces */
+    long bytes() {
+        int blocks = (size + MASK) >> SHIFT;
+        int spilled = 0;
+        for (int b = 0; b < blocks; b++) {
+            spilled += isWide(b) ? 1 : 0;
+        }
+        return bytes(size, blocks, spilled);
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        int blocks = (size + MASK) >> SHIFT;
+        int spilled = 0;
+        for (int b = 0; b < blocks; b++) {
+            spilled += isWide(b) ? 1 : 0;
+        }
+        out.writeInt(size);
+        out.writeInt(blocks);
+        out.writeInt(spilled);
+        out.writeInt(0);
+        for (int b = 0; b < blocks; b++) {
+            out.writeLong(get(b << SHIFT));
+        }
+        int slot = 0;
+        for (int b = 0; b < blocks; b++) {
+            out.writeInt(isWide(b) ? slot++ : -1);
+        }
+        for (int b = 0; b < blocks; b++) {
+            if (isWide(b)) {
+                long checkpoint = get(b << SHIFT);
+                for (int j = 0; j < BLOCK; j++) {
+                    int i = (b << SHIFT) + j;
+                    out.writeInt(i < size ? (int)(get(i) - checkpoint) : 0);
+                }
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            out.writeChar(delta(i));
+        }
+    }
+
+    private boolean isWide(int b) {
+        if (deltas != null) {
+            return slots.get(b) >= 0;
+        }
+        Page p = pages[b >> (PAGE_SHIFT - SHIFT)];
+        return p.wide != null && p.wide[b & (BLOCKS - 1)] != null;
+    }
+
+    private char delta(int i) {
+        if (deltas != null) {
+            return deltas.get(i);
+        }
+        return pages[i >> PAGE_SHIFT].deltas[i & (PAGE - 1)];
+    }
+
+    private static long bytes(int n, int blocks, int spilled) {
+        return HEADER + blocks * 12L + spilled * BLOCK * 4L + n * 2L;
+    }
+
+}
@@ -0,0 +1,126 @@
+/*  Copyright (c) 2012, Leo Kuznetsov
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+    * Neither the name of the {organization} nor the names of its
+      contributors may be used to endorse or promote products derived from
+      this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+    DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+    FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+    DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+    SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+    CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+    OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+    OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package android.mono.table.data;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+import static android.mono.table.etc.util.*;
+
+/** Pages is a read only view of a (possibly multi gigabyte) region of a file through fixed size memory
+    mapped windows. At most CACHED windows are referenced at a time and the least recently used is
+    dropped (and unmapped by GC) to map another one. Windows overlap by OVERLAP bytes so any range of up
+    to OVERLAP bytes is always inside the single window(position). Pages can also wrap a ByteBuffer
+    that is already in memory. Thread safe.
+ */
+
+final class Pages {
+
+    static final int OVERLAP = 64 * 1024;
+    private static final long WINDOW = 32L * 1024 * 1024;
+    private static final int CACHED = 4;
+
+    private final FileChannel channel;
+    private final long start;  // of the region in the file
+    private final long length; // of the region
+    private final long window;
+    private final ByteBuffer[] buffers = new ByteBuffer[CACHED];
+    private final long[] windows = new long[CACHED]; // index of the window mapped in buffers[i]
+    private final long[] used = new long[CACHED];
+    private long clock;
+
+    Pages(FileChannel fc, long offset, long len) {
+        channel = fc;
+        start = offset;
+        length = len;
+        window = WINDOW;
+        for (int i = 0; i < CACHED; i++) {
+            windows[i] = -1;
+        }
+    }
+
+    Pages(ByteBuffer b) {
+        channel = null;
+        start = 0;
+        length = b.limit();
+        window = Long.MAX_VALUE;
+        buffers[0] = b;
+        windows[0] = 0;
+    }
+
+    long length() {
+        return length;
+    }
+
+    /** @return window containing the position with index 0 at offset(position) = 0 */
+    synchronized ByteBuffer window(long position) {
+        long w = position / window;
+        clock++;
+        int lru = 0;
+        for (int i = 0; i < CACHED; i++) {
+            if (windows[i] == w) {
+                used[i] = clock;
+                return buffers[i];
+            }
+            if (used[i] < used[lru]) {
+                lru = i;
+            }
+        }
+        long from = w * window;
+        long size = Math.min(window + OVERLAP, length - from);
+        try {
+            buffers[lru] = channel.map(FileChannel.MapMode.READ_ONLY, start + from, size);
+        } catch (IOException e) {
+            throw new Error(e);
+        }
+        windows[lru] = w;
+        used[lru] = clock;
+        return buffers[lru];
+    }
+
+    /** @return position relative to the start of window(position) */
+    int offset(long position) {
+        return (int)(position % window);
+    }
+
+    byte get(long position) {
+        return window(position).get(offset(position));
+    }
+
+    /** reads up to OVERLAP bytes starting at position into `to' */
+    void read(long position, byte[] to, int ofs, int len) {
+        assertion(len <= OVERLAP);
+        ByteBuffer b = window(position).duplicate();
+        b.position(offset(position));
+        b.get(to, ofs, len);
+    }
+
+}
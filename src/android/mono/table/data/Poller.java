@@ -0,0 +1,265 @@
+/*  Copyright (c) 2012, Leo Kuznetsov
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+    * Neither the name of the {organization} nor the names of its
+      contributors may be used to endorse or promote products derived from
+      this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+    DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+    FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+    DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+    SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+    CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+    OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+    OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package android.mono.table.data;
+
+import android.os.*;
+
+import java.util.*;
+
+import static android.mono.table.etc.util.*;
+
+/** Poller is the single I/O scheduler shared by all DataModels. A small fixed pool of worker threads
+    runs the tasks of submitted Groups; when all tasks of a Group are complete a single `done' callback
+    is posted to the main thread. Submitting a Group that is still in flight is coalesced: if none of its
+    tasks has started yet only the callback is replaced, otherwise the Group runs once more after the
+    current run is complete. DataModels can be registered to be updated periodically on the main thread.
+    A task that throws is traced and counts as complete, the worker keeps running. shutdown() does not
+    wait for the workers: they are detached and long tasks are expected to poll cancelled() and return.
+ */
+
+public final class Poller {
+
+    public static final class Group {
+
+        private final Runnable[] tasks;
+        private Runnable done;
+        private Runnable again; // done of the coalesced re-run
+        private boolean rerun;
+        private int next;       // index of the next task to start
+        private int pending;    // number of tasks not yet completed
+
+        public Group(Runnable... t) {
+            tasks = t;
+        }
+
+    }
+
+    private static final int WORKERS = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors()));
+    private static final Poller INSTANCE = new Poller();
+
+    private final Object lock = new Object();
+    private final ArrayDeque<Group> queue = new ArrayDeque<Group>(16);
+    private final Thread[] workers = new Thread[WORKERS];
+    private boolean running;
+    private volatile int generation; // of the running workers, incremented by shutdown()
+    // ticks are only accessed from the main thread:
+    private DataModel[] models = new DataModel[4];
+    private Runnable[] callbacks = new Runnable[4];
+    private long[] periods = new long[4];
+    private long[] due = new long[4];
+    private int registered;
+    private final Runnable tick = new Runnable() { public void run() { tick(); } };
+
+    private Poller() { }
+
+    public static Poller getInstance() {
+        return INSTANCE;
+    }
+
+    public void submit(Group g, Runnable done) {
+        synchronized (lock) {
+            start();
+            if (g.pending == 0) {
+                enqueue(g, done);
+            } else if (g.next == 0) {
+                g.done = done; // nothing started yet - the run in the queue will deliver fresh data
+            } else {
+                g.rerun = true;
+                g.again = done;
+            }
+        }
+    }
+
+    public void register(DataModel dm, long milliseconds, Runnable done) {
+        assertion(isMainThread());
+        unregister(dm);
+        if (registered == models.length) {
+            models = Arrays.copyOf(models, registered * 2);
+            callbacks = Arrays.copyOf(callbacks, registered * 2);
+            periods = Arrays.copyOf(periods, registered * 2);
+            due = Arrays.copyOf(due, registered * 2);
+        }
+        models[registered] = dm;
+        callbacks[registered] = done;
+        periods[registered] = milliseconds;
+        due[registered] = SystemClock.uptimeMillis();
+        registered++;
+        removeCallbacks(tick);
+        post(tick);
+    }
+
+    public void unregister(DataModel dm) {
+        assertion(isMainThread());
+        for (int i = 0; i < registered; i++) {
+            if (models[i] == dm) {
+                registered--;
+                models[i] = models[registered];
+                callbacks[i] = callbacks[registered];
+                periods[i] = periods[registered];
+                due[i] = due[registered];
+                models[registered] = null;
+                callbacks[registered] = null;
+                break;
+            }
+        }
+        if (registered == 0) {
+            removeCallbacks(tick);
+        }
+    }
+
+    /** stops all ticks and signals worker threads to stop without waiting for them (a worker inside of
+        a long task would block the main thread). Groups that have not been started are dropped.
+        New workers are started by the next submit(). */
+    public void shutdown() {
+        assertion(isMainThread());
+        while (registered > 0) {
+            unregister(models[0]);
+        }
+        synchronized (lock) {
+            running = false;
+            generation++;
+            lock.notifyAll();
+            Arrays.fill(workers, null); // detached: they exit after the current task
+            for (Group g : queue) {
+                g.pending -= g.tasks.length - g.next;
+                g.next = 0;
+                g.done = null;
+                g.rerun = false;
+                g.again = null;
+            }
+            queue.clear();
+        }
+    }
+
+    /** @return true if called from a worker that has been detached by shutdown(): long tasks should
+        poll it and return early (e.g. without publishing or caching partial results) */
+    public static boolean cancelled() {
+        Thread t = Thread.currentThread();
+        return t instanceof Worker && ((Worker)t).generation != INSTANCE.generation;
+    }
+
+    private final class Worker extends Thread {
+
+        final int generation;
+
+        Worker(int i, int g) {
+            super("poller-" + i);
+            generation = g;
+        }
+
+        public void run() {
+            work(generation);
+        }
+
+    }
+
+    private void tick() {
+        long now = SystemClock.uptimeMillis();
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < registered; i++) {
+            if (due[i] <= now) {
+                due[i] = now + periods[i];
+                models[i].update(callbacks[i]);
+            }
+            next = Math.min(next, due[i]);
+        }
+        if (registered > 0) {
+            postDelayed(tick, next - now);
+        }
+    }
+
+    private void start() {
+        if (!running) {
+            running = true;
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new Worker(i, generation);
+                workers[i].start();
+            }
+        }
+    }
+
+    private void enqueue(Group g, Runnable done) {
+        g.done = done;
+        g.next = 0;
+        g.pending = g.tasks.length;
+        if (g.pending == 0) {
+            complete(g);
+        } else {
+            queue.addLast(g);
+            lock.notifyAll();
+        }
+    }
+
+    private void complete(Group g) {
+        if (g.done != null) {
+            post(g.done);
+            g.done = null;
+        }
+        if (g.rerun) {
+            g.rerun = false;
+            Runnable done = g.again;
+            g.again = null;
+            enqueue(g, done);
+        }
+    }
+
+    private void work(int g0) {
+        for (;;) {
+            Group g;
+            Runnable task;
+            synchronized (lock) {
+                while (running && g0 == generation && queue.isEmpty()) {
+                    try { lock.wait(); } catch (InterruptedException e) { trace(e); return; }
+                }
+                if (!running || g0 != generation) {
+                    return;
+                }
+                g = queue.peekFirst();
+                task = g.tasks[g.next++];
+                if (g.next == g.tasks.length) {
+                    queue.pollFirst();
+                }
+            }
+            try {
+                task.run();
+            } catch (Throwable t) { // a failed tick must not take the worker down with it
+                trace(t);
+            } finally {
+                synchronized (lock) {
+                    g.pending--;
+                    if (g.pending == 0) {
+                        complete(g);
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -30,54 +30,113 @@
 package android.mono.table.data;
 
 import android.graphics.*;
+import android.mono.table.app.*;
 import android.mono.table.etc.*;
 
 import java.io.*;
+import java.util.*;
 import java.util.concurrent.atomic.*;
 
 import static android.mono.table.etc.util.*;
 
 public abstract class ProcFS implements DataModel {
 
+    /* Data.offsets[column][row] and Data.lengths[column][row] point into Data.bytes.
+       Arrays are allocated with spare capacity and only first Data.rows entries are valid.
+       For Schema.stable() sources Data.layout is fingerprint of row count and labels
+       and Data.changed[row] tells if any value of the row differs from previous tick.
+       Data.index is the position of the snapshot in the triple buffer and Data.tick is its sequence number.
+       Schema.NUMBER columns are parsed once per tick into Data.values[column][row] and
+       Data.deltas[column][row] is the difference with previous tick if the layout has not changed
+       (both are null for Schema.TEXT columns). Data.elapsed is nanoseconds since previous tick.
+       Data.keys indexes rows by label for Schema.stable() sources.
+       Data.widest[column] is the number of monospace cells of the widest field in the column. */
     protected static final class Data {
+        public int index;
+        public long tick;
         public byte[] bytes;
-        public char[] chars;
         public int[][] offsets;
         public int[][] lengths;
+        public long[][] values;
+        public long[][] deltas;
+        public long nanos;
+        public long elapsed;
+        public int rows;
+        public long layout;
+        public boolean[] changed;
+        public int[] widest;
+        Keys keys;
     }
 
     private File file;
     private RandomAccessFile raf;
 
-    protected volatile int ix;
-    private final AtomicInteger ai = new AtomicInteger();
-    private final Data data[] = new Data[2];
-    private final CharArray charArray = new CharArray();
-    private Rect[] bounds;
-    private final Rect rc = new Rect();
-    private final Runnable updater = new Runnable() { public void run() { updater(); } };
-    private final Runnable read = new Runnable() { public void run() { read(); } };
-    private final Runnable QUIT = new Runnable() { public void run() { } };
-    private final Runnable[] queue = new Runnable[1];
-    private Thread thread;
+    /* Lock free triple buffer: reader (main thread) owns data[front], writer (poller worker) owns
+       data[back] and the most recently published snapshot is exchanged through `middle'. */
+    protected static final int BUFFERS = 3;
+    private static final int FRESH = 4; // published snapshot in the middle has not been acquired yet
+    private final Data data[] = new Data[BUFFERS];
+    private int front = 0;
+    private int back = 1;
+    private int last = 2; // writer: most recently published snapshot
+    private final AtomicInteger middle = new AtomicInteger(2);
     private Runnable done;
+    private final Runnable published = new Runnable() { public void run() { published(); } };
+    protected final Schema schema;
+    private final byte[][] classes; // compiled schema
+    private final ByteArray byteArray = new ByteArray();
+    private int[] cells = new int[0]; // running maximum of Data.widest, main thread only
+    private boolean consecutive; // front snapshot directly follows the one the reader had before
+    private final Rect rc = new Rect();
+    final Runnable reader = new Runnable() { public void run() { read(); } };
+    private final Poller.Group group = new Poller.Group(reader);
+    // labels (column 0) of the last tokenized file, only accessed by reader:
+    private byte[] labels = new byte[256];
+    private int[] starts = new int[17]; // labels[starts[row]..starts[row + 1]) is label of the row
+    private int labeled = -1;           // number of rows in the layout or -1 if unknown
+    private long fingerprint;
+    private Keys keys;
+    // stable row handles, only accessed from the main thread:
+    private final int number; // first Schema.NUMBER column used by valueOf()
+    private String[] handles = new String[0];
+    private int[] handled = new int[0];
+    private Keys resolved;
 
-    public ProcFS(int columns) {
+    public ProcFS(Schema s) {
+        schema = s;
+        classes = s.compile();
+        int columns = s.columns();
+        int k = 0;
+        while (k < columns - 1 && s.type(k) != Schema.NUMBER) {
+            k++;
+        }
+        number = k;
         for (int i = 0; i < data.length; i++) {
             data[i] = new Data();
+            data[i].index = i;
             data[i].bytes = new byte[4096]; /* most procFS files on my Android are shorter */
-            data[i].lengths = new int[columns][];
-            data[i].offsets = new int[columns][];
+            data[i].lengths = new int[columns][16];
+            data[i].offsets = new int[columns][16];
+            data[i].values = new long[columns][];
+            data[i].deltas = new long[columns][];
+            for (int c = 0; c < columns; c++) {
+                if (s.type(c) == Schema.NUMBER) {
+                    data[i].values[c] = new long[16];
+                    data[i].deltas[c] = new long[16];
+                }
+            }
+            data[i].changed = new boolean[16];
+            data[i].widest = new int[columns];
         }
     }
 
-    protected abstract void parse(Data d, int len, int count, boolean hasLastLineBreak);
+    /** called on the poller worker thread after the file has been tokenized into `d' and before it is published.
+        Reader snapshot (front) must not be accessed from here. */
+    protected void parsed(Data d) { }
 
     public void open(Object... args) {
-        assertion(thread == null && raf == null);
+        assertion(file == null && raf == null);
         file = new File((String)args[0]);
-        thread = new Thread(updater);
-        thread.start();
     }
 
     private boolean open() {
@@ -89,93 +148,152 @@ public abstract class ProcFS implements DataModel {
         }
     }
 
-    public void close() {
-        synchronized (queue) { queue[0] = QUIT; queue.notify(); }
-        try { thread.join(); } catch (InterruptedException e) { e.printStackTrace(); }
+    public synchronized void close() { // waits for the read in progress if any
         util.close(raf);
         raf = null;
-        thread = null;
+        file = null;
     }
 
     public void update(Runnable updated) {
         done = updated;
-        synchronized (queue) { queue[0] = read; queue.notify(); }
+        Poller.getInstance().submit(group, published);
+    }
+
+    private void published() {
+        acquire();
+        if (done != null) {
+            Runnable r = done;
+            done = null;
+            r.run();
+        }
+    }
+
+    /** makes the most recently published snapshot visible to the reader. Only called on the main thread
+        at the moment when consumers are ready to see new data (e.g. before invalidating views). */
+    protected void acquire() {
+        assertion(isMainThread());
+        if ((middle.get() & FRESH) != 0) {
+            long tick = data[front].tick;
+            front = middle.getAndSet(front) & ~FRESH;
+            consecutive = data[front].tick == tick + 1; // otherwise Data.changed is relative to a skipped snapshot
+            int[] widest = data[front].widest;
+            if (cells.length < widest.length) {
+                cells = Arrays.copyOf(cells, widest.length);
+            }
+            for (int c = 0; c < widest.length; c++) {
+                cells[c] = Math.max(cells[c], widest[c]);
+            }
+        }
+    }
+
+    /** @return the snapshot owned by the reader (main thread) */
+    protected final Data front() {
+        return data[front];
     }
 
     public int columns() {
-        return data[1 - ix].offsets.length;
+        return data[front].offsets.length;
     }
 
     public int rows() {
-        return data[1 - ix].offsets[0].length;
+        return data[front].rows;
     }
 
     public TextInterface getText(int c, int r) {
-        charArray.wrap(data[1 - ix].chars, data[1 - ix].offsets[c][r], data[1 - ix].lengths[c][r]);
-        return charArray;
+        byteArray.wrap(data[front].bytes, data[front].offsets[c][r], data[front].lengths[c][r]);
+        return byteArray;
     }
 
-    public Rect bounds(int c, int r, Paint paint) {
-        if (bounds == null || bounds[c] == null) {
-            measure(paint);
-        }
-        return bounds[c];
+    /** @return fingerprint of the current layout, changes when rows are added, removed or relabeled */
+    public long layout() {
+        return data[front].layout;
     }
 
-    public void measure(Paint paint) {
-        int n = rows();
-        bounds = new Rect[columns()];
-        for (int c = 0; c < bounds.length; c++) {
-            assertion(bounds[c] == null);
-            bounds[c] = new Rect();
-            Rect b = bounds[c];
-            for (int r = 0; r < n; r++) {
-                TextInterface ti = getText(c, r);
-                paint.getTextBounds(ti.array(), ti.offset(), ti.length(), rc);
-                b.left = Math.min(b.left, rc.left);
-                b.top = Math.min(b.top, rc.top);
-                b.right = Math.max(b.right, rc.right);
-                b.bottom = Math.max(b.bottom, rc.bottom);
-            }
-        }
+    /** @return true if any value in the row has changed since previous update (always true if schema is not stable) */
+    public boolean changed(int r) {
+        return !consecutive || data[front].changed[r];
     }
 
-    private void updater() {
-        try {
-            for (;;) {
-                Runnable q = null;
-                while (q == null) {
-                    synchronized (queue) {
-                        q = queue[0];
-                        if (q == null) {
-                            queue.wait();
-                        } else {
-                            queue[0] = null;
-                        }
-                    }
-                }
-                if (q == QUIT) {
-                    break;
-                }
-                q.run();
-                synchronized (queue) {
-                    if (done != null) {
-                        post(done);
-                        done = null;
-                    }
-                }
+    /** @return value of Schema.NUMBER column */
+    public long value(int c, int r) {
+        return data[front].values[c][r];
+    }
+
+    /** @return difference of Schema.NUMBER column value with the previous tick (0 if layout has changed) */
+    public long delta(int c, int r) {
+        return data[front].deltas[c][r];
+    }
+
+    /** @return per second rate of change of Schema.NUMBER column value */
+    public float rate(int c, int r) {
+        Data d = data[front];
+        return d.elapsed <= 0 ? 0 : d.deltas[c][r] * (float)C.NANOS_IN_SECOND / d.elapsed;
+    }
+
+    /** @return row of the label (without terminator, e.g. "MemAvailable") or -1. Schema.stable() sources only */
+    public int row(CharSequence key) {
+        Keys k = data[front].keys;
+        return k == null ? -1 : k.row(key);
+    }
+
+    /** @return value of the first Schema.NUMBER column in the row of the label or 0 if there is no such row */
+    public long valueOf(CharSequence key) {
+        int r = row(key);
+        return r < 0 ? 0 : data[front].values[number][r];
+    }
+
+    /** registers the label and returns handle that resolves to its row in O(1) for all
+        snapshots of the same layout. Handles are re-resolved once when layout changes. */
+    public int handle(CharSequence key) {
+        assertion(isMainThread());
+        int h = handles.length;
+        handles = Arrays.copyOf(handles, h + 1);
+        handled = Arrays.copyOf(handled, h + 1);
+        handles[h] = key.toString();
+        resolved = null;
+        return h;
+    }
+
+    public int row(int handle) {
+        Keys k = data[front].keys;
+        if (k != resolved) {
+            for (int i = 0; i < handles.length; i++) {
+                handled[i] = k == null ? -1 : k.row(handles[i]);
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            resolved = k;
         }
+        return handled[handle];
+    }
+
+    public long valueOf(int handle) {
+        int r = row(handle);
+        return r < 0 ? 0 : data[front].values[number][r];
+    }
+
+    protected static long value(Data d, int c, int r) {
+        return d.values[c][r];
     }
 
-    private void read() {
+    /** @return bounds of the column: the widest field (in monospace cells) seen so far, so columns never shrink */
+    public Rect bounds(int c, int r, Paint paint) {
+        return Metrics.of(paint).bounds(cells(c), rc);
+    }
+
+    /** @return width of the column in monospace cells, subclasses that format their own text override it */
+    protected int cells(int c) {
+        return c < cells.length ? cells[c] : 0;
+    }
+
+    private synchronized void read() {
+        if (file == null) {
+            return; // closed while the read was queued
+        }
         if (raf == null && !open()) {
             // procFS file like "/sys/devices/system/cpu/cpu2/cpufreq/stats/time_in_state" may be absent
             return; // see https://groups.google.com/a/chromium.org/forum/#!msg/chromium-bugs/Llf6lNgeMkg/IFnFiQHvuWMJ
         }
-        Data d = data[ix];
+        Data d = data[back];
+        d.nanos = System.nanoTime();
         try {
             int len = 0;
             int remains = d.bytes.length;
@@ -196,35 +314,238 @@ public abstract class ProcFS implements DataModel {
                     d.bytes = realloc;
                 }
             }
-            if (d.chars == null || d.chars.length != len) {
-                d.chars = new char[len];
+            if (!schema.isStable()) {
+                tokenize(d, len);
+                Arrays.fill(d.changed, 0, d.rows, true);
+            } else if (retokenize(d, len)) {
+                d.layout = fingerprint;
+                d.keys = keys;
+                diff(d, data[last]);
+            } else {
+                tokenize(d, len);
+                relabel(d);
+                d.layout = fingerprint;
+                d.keys = keys;
+                Arrays.fill(d.changed, 0, d.rows, true);
             }
-            utf8.decode(d.bytes, 0, len, d.chars, 0, d.chars.length);
-            boolean hasLastLineBreak = d.chars[len - 1] == '\n';
-            int count = countLines(d, len, hasLastLineBreak);
-            parse(d, len, count, hasLastLineBreak);
-            ix = ai.incrementAndGet() % 2;
+            d.tick = data[last].tick + 1;
+            numbers(d, data[last]);
+            widths(d);
+            parsed(d);
+            last = back;
+            back = middle.getAndSet(back | FRESH) & ~FRESH;
         } catch (IOException e) {
             util.close(raf);
             raf = null;
         }
     }
 
-    private int countLines(Data d, int len, boolean hasLastLineBreak) {
-        int count = 0;
-        for (int i = 0; i < len; i++) {
-            count += d.chars[i] == '\n' ? 1 : 0;
+    private static void widths(Data d) {
+        for (int c = 0; c < d.widest.length; c++) {
+            int w = 0;
+            for (int r = 0; r < d.rows; r++) {
+                w = Math.max(w, Metrics.cells(d.bytes, d.offsets[c][r], d.lengths[c][r]));
+            }
+            d.widest[c] = w;
+        }
+    }
+
+    /* procFS and sysFS content is ASCII: single pass over bytes finds both line and field boundaries
+       using byte classes compiled from the schema. Fields beyond number of columns are ignored,
+       missing fields are empty. */
+    private void tokenize(Data d, int len) {
+        int limit = schema.limit();
+        int i = skip(d.bytes, len);
+        int r = 0;
+        while (i < len && r < limit) {
+            ensure(d, r);
+            i = scan(d, r, 0, i, len);
+            r++;
+        }
+        d.rows = r;
+    }
+
+    /* When rows and their labels are the same as in the last tokenized file, labels are only compared
+       (not tokenized) and only value fields are scanned. Returns false if layout has changed. */
+    private boolean retokenize(Data d, int len) {
+        if (labeled < 0) {
+            return false;
+        }
+        byte[] b = d.bytes;
+        boolean terminated = schema.terminator(0) != 0;
+        int i = skip(b, len);
+        for (int r = 0; r < labeled; r++) {
+            while (i < len && Schema.isWhitespace(b[i])) {
+                i++;
+            }
+            int k = starts[r];
+            int n = starts[r + 1] - k;
+            if (i + n > len) {
+                return false;
+            }
+            for (int j = 0; j < n; j++) {
+                if (b[i + j] != labels[k + j]) {
+                    return false;
+                }
+            }
+            if (!terminated && i + n < len && classes[0][b[i + n] & 0xFF] == Schema.CONTENT) {
+                return false; // label is longer than it used to be
+            }
+            ensure(d, r);
+            d.offsets[0][r] = i;
+            d.lengths[0][r] = n;
+            i = scan(d, r, 1, i + n, len);
+        }
+        if (labeled < schema.limit() && i < len) {
+            return false; // more rows than before
+        }
+        d.rows = labeled;
+        return true;
+    }
+
+    /* tokenizes one line starting with column `c' at position `i', returns position after the line break */
+    private int scan(Data d, int r, int c, int i, int len) {
+        byte[] b = d.bytes;
+        int[][] offsets = d.offsets;
+        int[][] lengths = d.lengths;
+        int columns = offsets.length;
+        byte[] cls = classes[c];
+        int start = -1; // start of the current field
+        while (i < len) {
+            byte ch = b[i];
+            byte k = cls[ch & 0xFF];
+            if (start < 0 && k != Schema.LINE && !Schema.isWhitespace(ch)) {
+                start = i;
+            }
+            if (start >= 0 && k != Schema.CONTENT) {
+                int end = k == Schema.TERMINATOR ? i + 1 : i;
+                if (c < columns) {
+                    offsets[c][r] = start;
+                    lengths[c][r] = end - start;
+                    c++;
+                    cls = classes[c];
+                }
+                start = -1;
+            }
+            i++;
+            if (k == Schema.LINE) {
+                break;
+            }
+        }
+        if (start >= 0 && c < columns) { // last line without line break
+            offsets[c][r] = start;
+            lengths[c][r] = len - start;
+            c++;
+        }
+        while (c < columns) {
+            offsets[c][r] = i;
+            lengths[c][r] = 0;
+            c++;
         }
-        count += !hasLastLineBreak ? 1 : 0;
-        for (int c = 0; c < d.offsets.length; c++) {
-            if (d.offsets[c] == null || d.offsets[c].length != count) {
-                d.offsets[c] = new int[count];
+        return i;
+    }
+
+    private int skip(byte[] b, int len) {
+        int i = 0;
+        for (int k = schema.skip(); k > 0 && i < len; i++) {
+            k -= b[i] == '\n' ? 1 : 0;
+        }
+        return i;
+    }
+
+    /* remembers labels of the freshly tokenized file and computes layout fingerprint (FNV-1a) */
+    private void relabel(Data d) {
+        int n = d.rows;
+        if (starts.length < n + 1) {
+            starts = new int[(n + 1) * 3 / 2];
+        }
+        int total = 0;
+        for (int r = 0; r < n; r++) {
+            total += d.lengths[0][r];
+        }
+        if (labels.length < total) {
+            labels = new byte[total * 3 / 2];
+        }
+        long h = 0xcbf29ce484222325L ^ n;
+        int k = 0;
+        for (int r = 0; r < n; r++) {
+            starts[r] = k;
+            int ofs = d.offsets[0][r];
+            int len = d.lengths[0][r];
+            System.arraycopy(d.bytes, ofs, labels, k, len);
+            for (int j = 0; j < len; j++) {
+                h = (h ^ labels[k + j]) * 0x100000001b3L;
+            }
+            h = (h ^ '\n') * 0x100000001b3L;
+            k += len;
+        }
+        starts[n] = k;
+        labeled = n;
+        fingerprint = h;
+        keys = new Keys(h, labels, starts, n, schema.terminator(0));
+    }
+
+    /* converts Schema.NUMBER columns of the whole tick at once, so consumers never parse text;
+       a malformed cell (kernel format drift, a truncated read) keeps its previous value with
+       a zero delta for this tick instead of failing the whole refresh */
+    private static void numbers(Data d, Data prev) {
+        boolean same = d.rows == prev.rows && d.layout == prev.layout && prev.nanos != 0;
+        d.elapsed = same ? d.nanos - prev.nanos : 0;
+        for (int c = 0; c < d.values.length; c++) {
+            long[] values = d.values[c];
+            if (values != null) {
+                long[] deltas = d.deltas[c];
+                int[] offsets = d.offsets[c];
+                int[] lengths = d.lengths[c];
+                for (int r = 0; r < d.rows; r++) {
+                    int n = lengths[r];
+                    long v = n == 0 ? 0 : Numbers.parseLong(d.bytes, offsets[r], n, Long.MIN_VALUE);
+                    if (v == Long.MIN_VALUE) {
+                        values[r] = same ? prev.values[c][r] : 0;
+                        deltas[r] = 0;
+                    } else {
+                        values[r] = v;
+                        deltas[r] = same ? v - prev.values[c][r] : 0;
+                    }
+                }
+            }
+        }
+    }
+
+    /* marks rows which values differ from the previous tick */
+    private static void diff(Data d, Data prev) {
+        int columns = d.offsets.length;
+        for (int r = 0; r < d.rows; r++) {
+            boolean changed = r >= prev.rows;
+            for (int c = 1; c < columns && !changed; c++) {
+                int n = d.lengths[c][r];
+                if (n != prev.lengths[c][r]) {
+                    changed = true;
+                } else {
+                    int i = d.offsets[c][r];
+                    int j = prev.offsets[c][r];
+                    for (int k = 0; k < n && !changed; k++) {
+                        changed = d.bytes[i + k] != prev.bytes[j + k];
+                    }
+                }
             }
-            if (d.lengths[c] == null || d.lengths[c].length != count) {
-                d.lengths[c] = new int[count];
+            d.changed[r] = changed;
+        }
+    }
+
+    private static void ensure(Data d, int r) {
+        if (r == d.offsets[0].length) {
+            int n = r * 3 / 2;
+            for (int c = 0; c < d.offsets.length; c++) {
+                d.offsets[c] = Arrays.copyOf(d.offsets[c], n);
+                d.lengths[c] = Arrays.copyOf(d.lengths[c], n);
+                if (d.values[c] != null) {
+                    d.values[c] = Arrays.copyOf(d.values[c], n);
+                    d.deltas[c] = Arrays.copyOf(d.deltas[c], n);
+                }
             }
+            d.changed = Arrays.copyOf(d.changed, n);
         }
-        return count;
     }
 
 }
@@ -0,0 +1,158 @@
+/*  Copyright (c) 2012, Leo Kuznetsov
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+    * Neither the name of the {organization} nor the names of its
+      contributors may be used to endorse or promote products derived from
+      this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+    DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+    FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+    DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+    SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+    CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+    OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+    OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package android.mono.table.data;
+
+import android.mono.table.etc.*;
+
+import java.util.*;
+
+import static android.mono.table.etc.util.*;
+
+/** Schema declares columns of a line oriented procFS/sysFS file. By default columns are separated
+    by white space; a column may instead end with a terminator character which is kept in the field
+    and may contain spaces (e.g. "MemTotal:" or "model name\t:"). Leading rows can be skipped and the
+    number of parsed rows can be limited. Schema is compiled into per column byte class tables used by
+    the single ProcFS tokenizer loop, so parsing never allocates.
+ */
+
+public final class Schema {
+
+    public static final int TEXT = 0, NUMBER = 1;
+
+    static final byte CONTENT = 0, SEPARATOR = 1, TERMINATOR = 2, LINE = 3;
+
+    private static final String WHITESPACE = " \t\r";
+
+    private String[] names = new String[0];
+    private int[] types = new int[0];
+    private char[] terminators = new char[0];
+    private int skip;
+    private int limit = Integer.MAX_VALUE;
+    private boolean stable;
+    private byte[][] classes; // [column][byte & 0xFF] compiled lazily, last entry is for extra fields
+
+    public Schema column(String name, int type) {
+        return column(name, type, (char)0);
+    }
+
+    /** column that ends with (and includes) terminator character, white space inside the field is kept */
+    public Schema column(String name, int type, char terminator) {
+        assertion(classes == null ? true : "schema is already compiled");
+        assertion(type == TEXT || type == NUMBER);
+        int n = names.length;
+        names = Arrays.copyOf(names, n + 1);
+        types = Arrays.copyOf(types, n + 1);
+        terminators = Arrays.copyOf(terminators, n + 1);
+        names[n] = name;
+        types[n] = type;
+        terminators[n] = terminator;
+        return this;
+    }
+
+    /** number of leading lines (e.g. headers) to ignore */
+    public Schema skip(int rows) {
+        skip = rows;
+        return this;
+    }
+
+    /** maximum number of rows to parse, the rest of the file is ignored */
+    public Schema limit(int rows) {
+        limit = rows;
+        return this;
+    }
+
+    /** rows and their labels (column 0) are expected to stay the same between updates and only values change
+        (e.g. "/proc/meminfo"). Unchanged layout is re-parsed incrementally and changed rows are tracked. */
+    public Schema stable() {
+        stable = true;
+        return this;
+    }
+
+    public boolean isStable() {
+        return stable;
+    }
+
+    public int columns() {
+        return names.length;
+    }
+
+    public String name(int column) {
+        return names[column];
+    }
+
+    public int type(int column) {
+        return types[column];
+    }
+
+    public int column(CharSequence name) {
+        for (int c = 0; c < names.length; c++) {
+            if (util.equals(name, names[c])) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    public char terminator(int column) {
+        return terminators[column];
+    }
+
+    int skip() {
+        return skip;
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    byte[][] compile() {
+        if (classes == null) {
+            byte[][] cls = new byte[names.length + 1][256];
+            for (int c = 0; c < cls.length; c++) {
+                char t = c < terminators.length ? terminators[c] : 0;
+                if (t == 0) {
+                    for (int i = 0; i < WHITESPACE.length(); i++) {
+                        cls[c][WHITESPACE.charAt(i)] = SEPARATOR;
+                    }
+                } else {
+                    cls[c][t] = TERMINATOR;
+                }
+                cls[c]['\n'] = LINE;
+            }
+            classes = cls;
+        }
+        return classes;
+    }
+
+    static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+}
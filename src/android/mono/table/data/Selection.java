@@ -0,0 +1,269 @@
+/*  Copyright (c) 2012, Leo Kuznetsov
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+    * Neither the name of the {organization} nor the names of its
+      contributors may be used to endorse or promote products derived from
+      this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+    DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+    FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+    DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+    SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+    CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+    OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+    OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package android.mono.table.data;
+
+import android.graphics.*;
+import android.mono.table.etc.*;
+
+import java.util.*;
+
+import static android.mono.table.etc.util.*;
+
+/** Selection is a filtered view of Words: a vector of selected rows over the same text, nothing is copied.
+    filter() runs on the Poller. Prefix queries are binary searched in each sorted run of the word list
+    (e.g. a list sorted by length and then alphabetically has one run per length). Substring queries look
+    up candidate rows in Trigrams and typo tolerant fuzzy() queries walk BKTree, both indices are built
+    on the first query that needs them. A query that extends the previous one (as user types) only
+    re-checks rows of the previous selection. Once a compiled dictionary() is set prefix queries are
+    answered by its completions in lexicographic order instead (duplicate words collapse to their
+    first row), which does not depend on the word list being sorted.
+ */
+
+public final class Selection implements DataModel {
+
+    private final Words words;
+    private int[] selection; // main thread: null selects all rows
+    private int count;
+    private Runnable done;
+    private final Runnable published = new Runnable() { public void run() { published(); } };
+    private final Poller.Group group = new Poller.Group(new Runnable() { public void run() { select(); } });
+    // requested by the main thread and handed back by the worker, guarded by `this':
+    private String query = "";
+    private boolean substring;
+    private int distance; // edit distance of fuzzy query or 0
+    private Dawg dawg;    // of all rows or null
+    private int[] ready;
+    private int readyCount;
+    // worker only:
+    private String last = "";
+    private boolean lastSubstring;
+    private int lastDistance;
+    private int[] result;
+    private int results;
+    private int selected = -1; // words.rows() at the time of the last result
+    private int[] runs = new int[16]; // starts of sorted runs
+    private int nruns;
+    private int sorted = -1;   // words.rows() at the time runs were found
+    private Trigrams trigrams;
+    private BKTree tree;
+
+    public Selection(Words w) {
+        words = w;
+    }
+
+    public void open(Object... args) { }
+
+    public void close() { }
+
+    /** selects rows that start with (or contain if `contains') the query. Empty query selects all rows.
+        `filtered' is called on the main thread when the new selection is visible. */
+    public void filter(CharSequence q, boolean contains, Runnable filtered) {
+        filter(q, contains, 0, filtered);
+    }
+
+    /** selects rows within Levenshtein distance k (1 or 2) of the query, closest first */
+    public void fuzzy(CharSequence q, int k, Runnable filtered) {
+        assertion(k > 0 ? true : "distance must be positive: " + k);
+        filter(q, false, k, filtered);
+    }
+
+    /** answers prefix queries from the dictionary compiled from all rows of the words */
+    public void dictionary(Dawg d) {
+        synchronized (this) {
+            dawg = d;
+        }
+    }
+
+    private void filter(CharSequence q, boolean contains, int k, Runnable filtered) {
+        assertion(isMainThread());
+        synchronized (this) {
+            query = q.toString();
+            substring = contains;
+            distance = k;
+        }
+        done = filtered;
+        Poller.getInstance().submit(group, published);
+    }
+
+    public void update(Runnable r) {
+        if (r != null) {
+            r.run();
+        }
+    }
+
+    /** @return row of the Words for the row of the selection */
+    public int row(int r) {
+        return selection == null ? r : selection[r];
+    }
+
+    public int columns() {
+        return words.columns();
+    }
+
+    public int rows() {
+        return selection == null ? words.rows() : count;
+    }
+
+    public boolean changed(int r) {
+        return false; // a new selection changes everything and is invalidated by `filtered'
+    }
+
+    public TextInterface getText(int c, int r) {
+        return words.getText(c, row(r));
+    }
+
+    public Rect bounds(int c, int r, Paint paint) {
+        return words.bounds(c, row(r), paint);
+    }
+
+    private void published() {
+        synchronized (this) {
+            selection = ready;
+            count = readyCount;
+        }
+        if (done != null) {
+            Runnable r = done;
+            done = null;
+            r.run();
+        }
+    }
+
+    private void select() {
+        String q;
+        boolean contains;
+        int k;
+        Dawg d;
+        synchronized (this) {
+            q = query;
+            contains = substring;
+            k = distance;
+            d = dawg;
+        }
+        int n = words.rows();
+        int[] r;
+        int found = 0;
+        if (q.length() == 0) {
+            r = null;
+        } else if (k > 0) {
+            if (tree == null || tree.rows() != n) {
+                tree = new BKTree(words, n);
+            }
+            r = tree.query(q, k);
+            found = r.length;
+        } else if (n == selected && result != null && contains == lastSubstring && lastDistance == 0 &&
+                   (contains ? q.contains(last) : q.startsWith(last))) {
+            r = new int[results]; // previous selection is published and must not be overwritten
+            for (int i = 0; i < results; i++) {
+                int row = result[i];
+                if (contains ? words.contains(row, q) : words.compare(row, q) == 0) {
+                    r[found++] = row;
+                }
+            }
+        } else if (!contains && d != null) {
+            r = new int[d.completions(q, new int[0])];
+            found = d.completions(q, r);
+        } else if (!contains) {
+            runs(n);
+            r = new int[16];
+            for (int i = 0; i < nruns; i++) {
+                int end = i + 1 < nruns ? runs[i + 1] : n;
+                int lo = bound(q, runs[i], end, 0);
+                int hi = bound(q, lo, end, 1);
+                if (found + hi - lo > r.length) {
+                    r = Arrays.copyOf(r, Math.max(found + hi - lo, r.length * 2));
+                }
+                for (int row = lo; row < hi; row++) {
+                    r[found++] = row;
+                }
+            }
+        } else if (q.length() >= Trigrams.N) {
+            if (trigrams == null || trigrams.rows() != n) {
+                trigrams = new Trigrams(words, n);
+            }
+            r = trigrams.query(q);
+            for (int i = 0; i < r.length; i++) {
+                if (words.contains(r[i], q)) {
+                    r[found++] = r[i];
+                }
+            }
+        } else {
+            r = new int[16];
+            for (int row = 0; row < n; row++) {
+                if (words.contains(row, q)) {
+                    if (found == r.length) {
+                        r = Arrays.copyOf(r, found * 2);
+                    }
+                    r[found++] = row;
+                }
+            }
+        }
+        last = q;
+        lastSubstring = contains;
+        lastDistance = k;
+        result = r;
+        results = found;
+        selected = n;
+        synchronized (this) {
+            ready = r;
+            readyCount = found;
+        }
+    }
+
+    /* @return first row in [from..to) that compares greater than `limit' with the query */
+    private int bound(String q, int from, int to, int limit) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (words.compare(mid, q) < limit) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    /* finds starts of sorted runs of the first n rows */
+    private void runs(int n) {
+        if (n == sorted) {
+            return;
+        }
+        nruns = 0;
+        for (int row = 0; row < n; row++) {
+            if (row == 0 || words.compare(row - 1, row) > 0) {
+                if (nruns == runs.length) {
+                    runs = Arrays.copyOf(runs, nruns * 2);
+                }
+                runs[nruns++] = row;
+            }
+        }
+        sorted = n;
+    }
+
+}
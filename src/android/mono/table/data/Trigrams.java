@@ -0,0 +1,261 @@
+/*  Copyright (c) 2012, Leo Kuznetsov
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+    * Neither the name of the {organization} nor the names of its
+      contributors may be used to endorse or promote products derived from
+      this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+    DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+    FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+    DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+    SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+    CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+    OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+    OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package android.mono.table.data;
+
+import java.util.*;
+
+/** Trigrams is an immutable substring index of Words rows: for every distinct three character
+    sequence a posting list of the rows that contain it. Posting lists are ascending row deltas
+    encoded as variable length integers in a single byte array (most deltas take a single byte),
+    trigrams are an open addressing hash table of packed chars. Query intersects posting lists of
+    the query trigrams starting with the shortest one; candidates still must be verified because
+    trigrams may appear in a different order in the row.
+ */
+
+final class Trigrams {
+
+    static final int N = 3; // shortest query that can be looked up
+
+    private static final long EMPTY = -1; // trigram of three chars takes only 48 bits
+
+    private final int rows;
+    private long[] keys;
+    private int[] starts; // byte offset of the posting list of the slot
+    private int[] counts; // number of rows in the posting list
+    private int[] sizes;  // bytes of the posting list, write position while building
+    private int[] last;   // last row added to the posting list + 1
+    private int used;
+    private byte[] postings;
+
+    Trigrams(Words w, int n) {
+        rows = n;
+        allocate(1024);
+        char[] row = new char[64];
+        for (int r = 0; r < n; r++) { // first pass counts rows and bytes of every posting list
+            int len = w.length(r);
+            if (row.length < len) {
+                row = new char[len * 3 / 2];
+            }
+            w.chars(r, 0, row, len);
+            char c1 = len > 1 ? row[0] : 0;
+            char c2 = len > 1 ? row[1] : 0;
+            for (int i = 0; i + N <= len; i++) {
+                char c0 = c1;
+                c1 = c2;
+                c2 = row[i + 2];
+                int s = slot(pack(c0, c1, c2), true);
+                if (last[s] != r + 1) {
+                    sizes[s] += varint(r + 1 - last[s]);
+                    counts[s]++;
+                    last[s] = r + 1;
+                }
+            }
+        }
+        int total = 0;
+        for (int s = 0; s < keys.length; s++) {
+            starts[s] = total;
+            total += sizes[s];
+            sizes[s] = starts[s];
+            last[s] = 0;
+        }
+        postings = new byte[total];
+        for (int r = 0; r < n; r++) {
+            int len = w.length(r);
+            if (row.length < len) {
+                row = new char[len * 3 / 2];
+            }
+            w.chars(r, 0, row, len);
+            char c1 = len > 1 ? row[0] : 0;
+            char c2 = len > 1 ? row[1] : 0;
+            for (int i = 0; i + N <= len; i++) {
+                char c0 = c1;
+                c1 = c2;
+                c2 = row[i + 2];
+                int s = slot(pack(c0, c1, c2), false);
+                if (last[s] != r + 1) {
+                    sizes[s] = write(postings, sizes[s], r + 1 - last[s]);
+                    last[s] = r + 1;
+                }
+            }
+        }
+        sizes = null;
+        last = null;
+    }
+
+    /** number of rows indexed */
+    int rows() {
+        return rows;
+    }
+
+    /** @return ascending rows that contain all trigrams of q (q.length() >= N), superset of rows containing q */
+    int[] query(CharSequence q) {
+        int m = q.length() - N + 1;
+        int[] slots = new int[m];
+        for (int i = 0; i < m; i++) {
+            int s = slot(pack(q.charAt(i), q.charAt(i + 1), q.charAt(i + 2)), false);
+            if (s < 0) {
+                return new int[0];
+            }
+            slots[i] = s;
+        }
+        // insertion sort by posting list length, m is small
+        for (int i = 1; i < m; i++) {
+            int s = slots[i];
+            int j = i;
+            while (j > 0 && counts[slots[j - 1]] > counts[s]) {
+                slots[j] = slots[j - 1];
+                j--;
+            }
+            slots[j] = s;
+        }
+        int s = slots[0];
+        int[] rs = new int[counts[s]];
+        int p = starts[s];
+        int row = -1;
+        for (int k = 0; k < rs.length; k++) {
+            int delta = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = postings[p++];
+                delta |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            row += delta;
+            rs[k] = row;
+        }
+        int k = rs.length;
+        for (int i = 1; i < m && k > 0; i++) {
+            if (slots[i] != slots[i - 1]) {
+                k = intersect(rs, k, slots[i]);
+            }
+        }
+        return k == rs.length ? rs : Arrays.copyOf(rs, k);
+    }
+
+    /* keeps first k rows of rs that are in the posting list of the slot, @return number of rows kept */
+    private int intersect(int[] rs, int k, int s) {
+        int p = starts[s];
+        int remaining = counts[s];
+        int row = -1;
+        int kept = 0;
+        for (int i = 0; i < k; i++) {
+            while (row < rs[i] && remaining > 0) {
+                int delta = 0;
+                for (int shift = 0; ; shift += 7) {
+                    byte b = postings[p++];
+                    delta |= (b & 0x7F) << shift;
+                    if (b >= 0) {
+                        break;
+                    }
+                }
+                row += delta;
+                remaining--;
+            }
+            if (row == rs[i]) {
+                rs[kept++] = row;
+            } else if (row < rs[i]) {
+                break; // posting list is exhausted
+            }
+        }
+        return kept;
+    }
+
+    private static long pack(char c0, char c1, char c2) {
+        return ((long)c0 << 32) | ((long)c1 << 16) | c2;
+    }
+
+    private static int varint(int v) {
+        int n = 1;
+        while ((v >>>= 7) != 0) {
+            n++;
+        }
+        return n;
+    }
+
+    private static int write(byte[] b, int p, int v) {
+        while ((v & ~0x7F) != 0) {
+            b[p++] = (byte)((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        b[p++] = (byte)v;
+        return p;
+    }
+
+    /** @return slot of the key, -1 if it is not present and !insert */
+    private int slot(long key, boolean insert) {
+        int mask = keys.length - 1;
+        long h = key * 0x9E3779B97F4A7C15L;
+        int s = (int)(h >>> 40) & mask;
+        while (keys[s] != key) {
+            if (keys[s] == EMPTY) {
+                if (!insert) {
+                    return -1;
+                }
+                if (used * 2 >= keys.length) {
+                    rehash();
+                    return slot(key, true);
+                }
+                keys[s] = key;
+                used++;
+                return s;
+            }
+            s = (s + 1) & mask;
+        }
+        return s;
+    }
+
+    private void allocate(int n) {
+        keys = new long[n];
+        Arrays.fill(keys, EMPTY);
+        starts = new int[n];
+        counts = new int[n];
+        sizes = new int[n];
+        last = new int[n];
+        used = 0;
+    }
+
+    private void rehash() {
+        long[] k = keys;
+        int[] c = counts;
+        int[] z = sizes;
+        int[] l = last;
+        allocate(k.length * 2);
+        for (int i = 0; i < k.length; i++) {
+            if (k[i] != EMPTY) {
+                int s = slot(k[i], true);
+                counts[s] = c[i];
+                sizes[s] = z[i];
+                last[s] = l[i];
+            }
+        }
+    }
+
+}
@@ -30,8 +30,10 @@
 package android.mono.table.data;
 
 import android.content.*;
+import android.content.pm.*;
 import android.content.res.*;
 import android.graphics.*;
+import android.os.*;
 import android.mono.table.etc.*;
 import android.mono.table.etc.Text;
 
@@ -39,6 +41,9 @@ import java.io.*;
 import java.nio.*;
 import java.nio.channels.*;
 import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
 
 import static android.mono.table.etc.util.*;
 
@@ -48,27 +53,108 @@ import static android.mono.table.etc.util.*;
    http://stackoverflow.com/questions/11276112/is-it-possible-to-add-specific-files-uncompressed-to-a-android-apk-using-build-x
    https://groups.google.com/forum/#!topic/android-developers/A5B03t9EKQI
    https://groups.google.com/forum/#!topic/android-ndk/gnSkxRzJzB0
+   In `mapped' mode words are never copied to the heap: rows are views over the mapped resource and
+   bytes are only widened to characters for the cells being drawn. Only the packed row index lives
+   on the heap. The file is mapped through a few fixed size windows (see Pages) and rows are addressed
+   by long offsets, so mapped mode can also browse multi gigabyte files: open(path) instead of open(id).
+   UTF-8 BOM and "\r\n" line breaks are tolerated in both modes. Bytes are widened to characters as
+   ISO-8859-1 in both modes, so arbitrary files do not fail: non ASCII UTF-8 characters are shown as
+   several Latin-1 characters. In mapped mode the text of a row longer than Pages.OVERLAP (64KB) is cut
+   to its first OVERLAP characters by getText() (the length column still shows the whole length), while
+   compare(), contains() and chars() see the whole row.
+   Line index is saved to the application cache directory and memory mapped on the next start, so the
+   word list is only scanned when the resource changes (different length, modification time or sampled
+   checksum) and a cached index that points past the end of the text is ignored.
+   In `progressive' mode rows() grows while the index is being built: the head of the file is indexed
+   first and `done' of update() is called as soon as first rows are available. The rest is published
+   chunk by chunk with `progress' notifications batched to at most one per BATCH_MILLIS.
+   compile() builds Dawg dictionary of the loaded words for membership and completion queries, it is
+   cached next to the line index and mapped on the next start as well.
+   I/O errors do not throw: loading stops, the rows indexed so far stay visible, `done' (and `progress')
+   are called as usual and failure() tells what went wrong.
 */
 
 public final class Words implements DataModel {
 
+    private static final int MIN_CHUNK = 256 * 1024;      // bytes per scanning thread
+    private static final int MAX_CHUNK = 8 * 1024 * 1024; // ~ upper bound of scratch memory per thread
+    // index cache file: magic, version, resource length, checksum, rows, widest, PackedIndex of line starts
+    private static final int MAGIC = 0x57494458, VERSION = 5; // "WIDX"
+    private static final int HEADER = 32;
+    private static final int HEAD = 16 * 1024;      // bytes indexed before anything else in progressive mode
+    private static final long BATCH_MILLIS = 100;   // minimum interval between progress notifications
+    private static final int CHUNK = 256;           // characters of a row compared per chars() call
+    private static final ThreadLocal<char[][]> SCRATCH = new ThreadLocal<char[][]>() {
+        @Override protected char[][] initialValue() {
+            return new char[][]{new char[CHUNK], new char[CHUNK]};
+        }
+    };
+
     private final Context context;
-    private final Rect[] bounds = new Rect[2];
+    private final boolean mapped;
+    private Pages pages; // mapped mode only
     private final Rect rc = new Rect();
     private char[] chars;
-    private int[] offsets;
-    private int[] lengths; // is necessary because of trailing "\n" at the end of the file and a bit faster too
+    private PackedIndex lines; // start offsets of rows followed by start of the next line, lengths are derived
+    private volatile int rows; // published after the index of the rows is written
+    private volatile int widest; // length of the longest published row (in characters)
+    private String key; // of the index cache file
+    private long resourceLength;   // and sampled checksum of the resource, identify cached dictionary
+    private long modified; // file lastModified() or package lastUpdateTime for resources, part of the checksum
+    private long resourceChecksum;
+    private volatile Dawg dawg;
+    private volatile boolean complete; // all rows are indexed
+    private volatile IOException failure; // that stopped open() or read()
+    private Runnable progress;
+    private Runnable loaded; // done of the first update() in progressive mode
+    private long notified;   // uptime of the last notification
     private AssetFileDescriptor afd;
+    private RandomAccessFile file;
     private FileChannel channel;
     private final Text number = new Text();
     private final CharArray word = new CharArray();
+    private final ByteBufferArray view = new ByteBufferArray();
+    private final Poller.Group group = new Poller.Group(new Runnable() { public void run() { read(); } });
+    private final Poller.Group compiler = new Poller.Group(new Runnable() { public void run() { compile(); } });
     private boolean once;
 
     public Words(Context ctx) {
+        this(ctx, false);
+    }
+
+    /** @param direct serve words straight from the mapped resource instead of decoding it on the heap */
+    public Words(Context ctx, boolean direct) {
         context = ctx;
+        mapped = direct;
     }
 
+    /** index rows progressively, `r' is posted to the main thread when more rows are available and
+        once again when loading is complete. Must be called before the first update(). */
+    public Words progressive(Runnable r) {
+        progress = r;
+        return this;
+    }
+
+    /** @param args raw resource id or path of a file */
     public void open(Object... args) {
+        if (args[0] instanceof String) {
+            String path = (String)args[0];
+            key = "f" + Integer.toHexString(path.hashCode());
+            modified = new File(path).lastModified();
+            try {
+                file = new RandomAccessFile(path, "r");
+                channel = file.getChannel();
+            } catch (FileNotFoundException e) {
+                failure = e; // reported by update()
+            }
+            return;
+        }
+        key = Integer.toHexString((Integer)args[0]);
+        try { // resources only change with the package
+            modified = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            modified = 0;
+        }
         afd = context.getResources().openRawResourceFd((Integer)args[0]);
         FileInputStream fis = null;
         try {
@@ -85,19 +171,19 @@ public final class Words implements DataModel {
             afd = null;
         }
         util.close(channel);
+        util.close(file);
+        file = null;
     }
 
     public void update(final Runnable done) {
         if (!once) {
             once = true;
-            new Thread() {
-                public void run() {
-                    read();
-                    if (done != null) {
-                        post(done);
-                    }
-                }
-            }.start();
+            if (progress != null) {
+                loaded = done;
+                Poller.getInstance().submit(group, progress);
+            } else {
+                Poller.getInstance().submit(group, done);
+            }
         } else {
             if (done != null) {
                 done.run();
@@ -105,29 +191,170 @@ public final class Words implements DataModel {
         }
     }
 
+    /** compiles the dictionary of the loaded words (or maps the one cached by a previous run) on a poller
+        worker, `done' is called on the main thread when dictionary() is available */
+    public void compile(Runnable done) {
+        assertion(complete ? true : "words are still loading");
+        Poller.getInstance().submit(compiler, done);
+    }
+
+    /** @return true when all rows are indexed */
+    public boolean complete() {
+        return complete;
+    }
+
+    /** @return the I/O error that stopped loading or null; check it in `done' of update() */
+    public IOException failure() {
+        return failure;
+    }
+
+    /** @return dictionary of the words or null if it has not been compiled yet */
+    public Dawg dictionary() {
+        return dawg;
+    }
+
     private char[] array() {
         return chars;
     }
 
-    private int offset(int i) {
-        return offsets[i];
+    long offset(int i) {
+        return lines.get(i);
+    }
+
+    /* length is the distance to the next line without "\n" or "\r\n" */
+    int length(int i) {
+        long next = lines.get(i + 1);
+        int n = (int)(next - lines.get(i) - 1);
+        return n > 0 && charAt(next - 2) == '\r' ? n - 1 : n;
+    }
+
+    char charAt(long i) {
+        return mapped ? (char)(pages.get(i) & 0xFF) : chars[(int)i];
+    }
+
+    /* copies n characters of the row starting at character `from' into to[0..n): the page window is
+       looked up once per OVERLAP bytes instead of once per character as charAt() does */
+    void chars(int row, int from, char[] to, int n) {
+        chars(offset(row) + from, to, 0, n);
+    }
+
+    private void chars(long position, char[] to, int ofs, int n) {
+        if (!mapped) {
+            System.arraycopy(chars, (int)position, to, ofs, n);
+            return;
+        }
+        while (n > 0) {
+            int m = Math.min(n, Pages.OVERLAP); // any OVERLAP bytes are inside of a single window
+            ByteBuffer b = pages.window(position);
+            int k = pages.offset(position);
+            for (int i = 0; i < m; i++) {
+                to[ofs + i] = (char)(b.get(k + i) & 0xFF);
+            }
+            position += m;
+            ofs += m;
+            n -= m;
+        }
+    }
+
+    /* @return per thread scratch buffer k of at least n characters */
+    private static char[] scratch(int k, int n) {
+        char[][] s = SCRATCH.get();
+        if (s[k].length < n) {
+            s[k] = new char[n];
+        }
+        return s[k];
     }
 
-    private int length(int i) {
-        return lengths[i];
+    /* offset(), length(), charAt(), chars() and row comparisons are thread safe for Selection and its
+       indices (getText() views are owned by the main thread) */
+
+    /** @return <0, 0, >0 comparing first p.length() characters of the row with p */
+    int compare(int row, CharSequence p) {
+        long o = offset(row);
+        int n = length(row);
+        int m = p.length();
+        int k = Math.min(n, m);
+        char[] a = scratch(0, CHUNK);
+        for (int i = 0; i < k; i += CHUNK) {
+            int c = Math.min(CHUNK, k - i);
+            chars(o + i, a, 0, c);
+            for (int j = 0; j < c; j++) {
+                int d = a[j] - p.charAt(i + j);
+                if (d != 0) {
+                    return d;
+                }
+            }
+        }
+        return n < m ? -1 : 0;
+    }
+
+    int compare(int r0, int r1) {
+        long o0 = offset(r0);
+        long o1 = offset(r1);
+        int n0 = length(r0);
+        int n1 = length(r1);
+        int k = Math.min(n0, n1);
+        char[] a = scratch(0, CHUNK);
+        char[] b = scratch(1, CHUNK);
+        for (int i = 0; i < k; i += CHUNK) {
+            int c = Math.min(CHUNK, k - i);
+            chars(o0 + i, a, 0, c);
+            chars(o1 + i, b, 0, c);
+            for (int j = 0; j < c; j++) {
+                int d = a[j] - b[j];
+                if (d != 0) {
+                    return d;
+                }
+            }
+        }
+        return n0 - n1;
+    }
+
+    /* the row is scanned in chunks overlapping by p.length() - 1 characters */
+    boolean contains(int row, CharSequence p) {
+        long o = offset(row);
+        int n = length(row);
+        int m = p.length();
+        if (m == 0) {
+            return true;
+        }
+        char[] a = scratch(0, Math.max(CHUNK, m * 2));
+        int step = a.length - m + 1;
+        for (int i = 0; i + m <= n; i += step) {
+            int c = Math.min(a.length, n - i);
+            chars(o + i, a, 0, c);
+            for (int s = 0; s + m <= c; s++) {
+                int k = 0;
+                while (k < m && a[s + k] == p.charAt(k)) {
+                    k++;
+                }
+                if (k == m) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     public final int columns() {
         return 2;
     }
 
+    public boolean changed(int r) {
+        return false; // words never change, only more rows may come in progressive mode
+    }
+
     public final int rows() {
-        return offsets.length;
+        return rows;
     }
 
     public TextInterface getText(int c, int r) {
-        if (c == 0) {
-            word.wrap(array(), offset(r), length(r));
+        if (c == 0 && mapped) {
+            long position = offset(r);
+            // lines longer than Pages.OVERLAP are truncated: they would not fit any cell anyway
+            return view.wrap(pages.window(position), pages.offset(position), Math.min(length(r), Pages.OVERLAP));
+        } else if (c == 0) {
+            word.wrap(array(), (int)offset(r), length(r));
             return word;
         } else {
             number.reset();
@@ -136,87 +363,363 @@ public final class Words implements DataModel {
         }
     }
 
+    /** exact and O(1): widest is maintained while rows are indexed */
     public Rect bounds(int c, int r, Paint paint) {
-        if (bounds[c] == null) {
-            measure(paint);
+        int w = widest;
+        int digits = 1;
+        for (int k = w; k >= 10; k /= 10) {
+            digits++;
         }
-        return bounds[c];
+        return Metrics.of(paint).bounds(c == 0 ? w : digits, rc);
     }
 
     private void read() {
+        try {
+            readRows();
+            complete = true;
+        } catch (IOException e) {
+            trace(e);
+            failure = e;
+        }
+        if (!Poller.cancelled()) {
+            loaded();
+        }
+    }
+
+    private void readRows() throws IOException {
         // about 3 times faster than BufferedReader readLine (500 versus 1500 milliseconds)
+        if (failure != null) {
+            throw failure;
+        }
+        long len = afd != null ? afd.getLength() : channel.size();
+        Pages p = new Pages(channel, afd != null ? afd.getStartOffset() : 0, len);
+        long crc = checksum(p, len, modified);
+        resourceLength = len;
+        resourceChecksum = crc;
+        if (mapped) {
+            pages = p; // before any rows are published
+            if (!load(len, crc, len)) {
+                index(p, len);
+                save(len, crc);
+            }
+            return;
+        }
+        if (len >= Integer.MAX_VALUE) {
+            throw new IOException("files over 2GB are only supported in mapped mode");
+        }
+        byte[] bytes = new byte[(int)len];
+        for (int i = 0; i < bytes.length; i += Pages.OVERLAP) { // ~40 milliseconds
+            p.read(i, bytes, i, Math.min(Pages.OVERLAP, bytes.length - i));
+        }
+        // one character per byte (as in mapped mode) keeps character offsets equal to byte offsets
+        chars = Charset.forName("ISO-8859-1").decode(ByteBuffer.wrap(bytes, 0, bytes.length)).array();
+        if (!load(len, crc, len)) {
+            index(new Pages(ByteBuffer.wrap(bytes)), bytes.length);
+            save(len, crc);
+        }
+    }
+
+    /* Line breaks are found concurrently in rounds of one chunk per core and chunk positions are stitched
+       into the row index in order as soon as the chunk is complete. Chunks are at most MAX_CHUNK bytes so
+       scratch memory stays bounded for huge files. Scanning threads are started once per index() and
+       each loops over its own stripe of chunks (the calling poller worker scans the first chunk of each
+       round): the slot of a chunk is handed back by `empty' after it has been stitched and the next round
+       of the stripe is scanned into it. Progressive mode indexes and publishes HEAD bytes before starting
+       the rest. ForkJoinPool is API 21, plain threads are used instead. Indexing stops between chunks
+       when the poller has been shut down; when a scanner fails or indexing stops the other scanners are
+       interrupted so none of them is left waiting for its slot. */
+    private void index(final Pages mem, final long len) throws IOException {
+        // see: http://en.wikipedia.org/wiki/Byte_order_mark#Representations_of_byte_order_marks_by_encoding
+        int bom = len >= 3 && mem.get(0) == (byte)(0xEF) && mem.get(1) == (byte)(0xBB) && mem.get(2) == (byte)(0xBF) ? 3 : 0;
+        final int cores = Runtime.getRuntime().availableProcessors();
+        final int[][] breaks = new int[cores][]; // positions relative to the start of the chunk, reused by rounds
+        final int[] counts = new int[cores];
+        lines = new PackedIndex((int)Math.min(len / 8, 1 << 20));
+        lines.add(bom);
+        long start = bom;
+        if (progress != null && len > bom) {
+            start = Math.min(len, bom + HEAD);
+            scan(mem, bom, start, 0, breaks, counts);
+            stitch(bom, 0, breaks, counts);
+            publish(lines.size() - 1);
+        }
+        final long from = start;
+        final long size = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, (len - from + cores - 1) / cores));
+        final Semaphore[] full = new Semaphore[cores];  // chunk of the slot has been scanned
+        final Semaphore[] empty = new Semaphore[cores]; // chunk of the slot has been stitched
+        final Throwable[] failed = new Throwable[1];
+        Thread[] threads = new Thread[cores];
+        for (int k = 1; k < cores && from + size * k < len; k++) {
+            final int chunk = k;
+            full[k] = new Semaphore(0);
+            empty[k] = new Semaphore(1);
+            threads[k] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (long f = from + size * chunk; f < len; f += size * cores) {
+                            empty[chunk].acquire();
+                            scan(mem, f, Math.min(len, f + size), chunk, breaks, counts);
+                            full[chunk].release();
+                        }
+                    } catch (InterruptedException e) {
+                        // stitching has failed or has been cancelled
+                    } catch (Throwable t) {
+                        failed[0] = t;
+                        full[chunk].release(Integer.MAX_VALUE / 2); // the stitching thread must not wait forever
+                    }
+                }
+            }, "words-" + k);
+            threads[k].setDaemon(true);
+            threads[k].start();
+        }
         try {
-            int len = (int)afd.getLength();
-            MappedByteBuffer mem = channel.map(FileChannel.MapMode.READ_ONLY, afd.getStartOffset(), len);
-            assertion(!mem.hasArray() ? true : "otherwise can and should use mem.array() and mem.arrayOffset()");
-            byte[] bytes = new byte[len];
-            mem.get(bytes); // ~40 milliseconds
-            Charset utf8 = Charset.forName("UTF-8");
-            CharBuffer cb = utf8.decode(ByteBuffer.wrap(bytes, 0, len));
-            chars = cb.array();
-            len = cb.length();
-            // see: http://en.wikipedia.org/wiki/Byte_order_mark#Representations_of_byte_order_marks_by_encoding
-            int offset0 = bytes[0] == (byte)(0xEF) && bytes[1] == (byte)(0xBB) && bytes[2] == (byte)(0xBF) ? 3 : 0;
-            int offset1 = chars[0] == (char)(0xFEFF) ? 1 : 0;
-            assertion(bytes.length - offset0 == len - offset1 ? true : "ASCII assumption for words list did not hold");
-            // ~370 milliseconds
-            int count = 0;
-            for (int i = 0; i < len; i++) {
-                count += chars[i] == '\n' ? 1 : 0;
-            }
-            boolean hasLastLineBreak = chars[len - 1] == '\n';
-            count += !hasLastLineBreak ? 1 : 0;
-            offsets = new int[count];
-            lengths = new int[count];
-            int n = 0;
-            int start = offset1;
-            for (int i = offset1; i < len; i++) {
-                if (chars[i] == '\n') {
-                    offsets[n] = start;
-                    lengths[n] = i - 1 - start;
-                    n++;
-                    start = i + 1;
+            for (long round = from; round < len; round += size * cores) {
+                if (Poller.cancelled()) {
+                    throw new InterruptedIOException("cancelled");
+                }
+                int chunks = (int)Math.min(cores, (len - round + size - 1) / size);
+                scan(mem, round, Math.min(len, round + size), 0, breaks, counts);
+                for (int k = 0; k < chunks; k++) {
+                    if (k > 0) {
+                        full[k].acquire();
+                        if (failed[0] != null) {
+                            throw new IOException("words-" + k + " failed", failed[0]);
+                        }
+                    }
+                    stitch(round + size * k, k, breaks, counts);
+                    publish(lines.size() - 1);
+                    if (k > 0) {
+                        empty[k].release();
+                    }
+                }
+            }
+            for (Thread t : threads) {
+                if (t != null) {
+                    t.join();
                 }
             }
-            if (!hasLastLineBreak) {
-                offsets[n] = start;
-                lengths[n] = len - start;
-                n++;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } finally { // scanners still waiting in empty[k].acquire() after a failure must not block forever
+            for (Thread t : threads) {
+                if (t != null && t.isAlive()) {
+                    t.interrupt();
+                }
+            }
+        }
+        if (len > bom && mem.get(len - 1) != '\n') {
+            lines.add(len + 1); // as if the last line was terminated
+        }
+        extend(lines.size() - 1);
+    }
+
+    /* appends starts of the lines following line breaks of the chunk starting at `base' */
+    private void stitch(long base, int k, int[][] breaks, int[] counts) {
+        int[] b = breaks[k];
+        for (int j = 0; j < counts[k]; j++) {
+            lines.add(base + b[j] + 1);
+        }
+    }
+
+    /* makes first n rows visible, widest is updated first */
+    private void extend(int n) {
+        int w = widest;
+        for (int i = rows; i < n; i++) {
+            w = Math.max(w, length(i));
+        }
+        widest = w;
+        rows = n;
+    }
+
+    private void publish(int n) {
+        extend(n);
+        if (progress != null && n > 0) {
+            long now = SystemClock.uptimeMillis();
+            if (loaded != null) {
+                post(loaded);
+                loaded = null;
+                notified = now;
+            } else if (now - notified >= BATCH_MILLIS) {
+                post(progress);
+                notified = now;
             }
-            assertion(n == count);
-            assertion(offsets[n - 1] + lengths[n - 1] == len || offsets[n - 1] + lengths[n - 1] == len - 1 ? true :
-                      "offsets[n - 1]=" + offsets[n - 1] + " lengths[n - 1]=" + lengths[n - 1] + " len=" + len);
+        }
+    }
+
+    /* progressive: first update() is done even if there were no rows to publish */
+    private void loaded() {
+        if (loaded != null) {
+            post(loaded);
+            loaded = null;
+        }
+    }
+
+    /* CRC32 of modification time and 64 evenly spaced 1KB samples: detects changed resource without
+       reading all of it (edits of the same length between samples are caught by the modification time) */
+    private static long checksum(Pages mem, long len, long modified) {
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < 8; i++) {
+            crc.update((int)(modified >>> (i * 8)));
+        }
+        byte[] sample = new byte[1024];
+        long step = Math.max(sample.length, len / 64);
+        for (long i = 0; i < len; i += step) {
+            int n = (int)Math.min(sample.length, len - i);
+            mem.read(i, sample, 0, n);
+            crc.update(sample, 0, n);
+        }
+        return crc.getValue();
+    }
+
+    private File cache(String extension) {
+        File dir = context.getCacheDir();
+        return dir == null ? null : new File(dir, "words-" + key + extension);
+    }
+
+    private File cache() {
+        return cache(mapped ? ".bdx" : ".cdx");
+    }
+
+    private void compile() {
+        if (dawg != null) {
+            return;
+        }
+        File f = cache(".dawg");
+        Dawg d = f == null ? null : map(f);
+        if (d != null && d.length() == resourceLength && d.checksum() == resourceChecksum) {
+            dawg = d;
+            return;
+        }
+        byte[] bytes = Dawg.compile(this, rows, resourceLength, resourceChecksum);
+        if (f != null) {
+            File tmp = new File(f.getPath() + ".tmp");
+            FileOutputStream out = null;
+            try {
+                out = new FileOutputStream(tmp);
+                out.write(bytes);
+                out.close();
+                out = null;
+                if (!tmp.renameTo(f)) {
+                    tmp.delete();
+                }
+                d = map(f);
+            } catch (IOException e) {
+                trace(e);
+                tmp.delete();
+            } finally {
+                util.close(out);
+            }
+        }
+        dawg = d != null ? d : new Dawg(ByteBuffer.wrap(bytes));
+    }
+
+    private static Dawg map(File f) {
+        if (!f.exists() || f.length() < Dawg.HEADER || f.length() > Integer.MAX_VALUE) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(f, "r");
+            return new Dawg(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
         } catch (IOException e) {
-            throw new Error(e);
-        }
-    }
-
-    private void measure(Paint paint) {
-        // measuring all 32,565 words takes up to 8 seconds. Thus we will measure only last 325 (1%)
-        // longest words of them (assuming words list is ordered alphabetically)
-        assertion(bounds[0] == null);
-        bounds[0] = new Rect();
-        int n = rows();
-        int s = n - n / 100;
-        Rect b = bounds[0];
-        for (int i = s; i < n; i++) {
-            paint.getTextBounds(array(), offset(i), length(i), rc);
-            b.left = Math.min(b.left, rc.left);
-            b.top = Math.min(b.top, rc.top);
-            b.right = Math.max(b.right, rc.right);
-            b.bottom = Math.max(b.bottom, rc.bottom);
-        }
-        b.right /= 2; /* ~ `average' width. long words will be clipped in half */
-        assertion(bounds[1] == null);
-        bounds[1] = new Rect();
-        Text text = Texts.getBuffer();
+            trace(e);
+            return null;
+        } catch (IllegalArgumentException e) {
+            trace(e);
+            return null;
+        } finally {
+            util.close(raf);
+        }
+    }
+
+    /* @param limit number of characters (heap) or bytes (mapped) rows must not extend beyond */
+    private boolean load(long len, long crc, long limit) {
+        File f = cache();
+        if (f == null || !f.exists()) {
+            return false;
+        }
+        RandomAccessFile raf = null;
         try {
-            int k = length(n-1);
-            text.append(k, 10);
-            paint.getTextBounds(text.array(), 0, k, bounds[1]);
+            raf = new RandomAccessFile(f, "r");
+            long size = raf.length();
+            if (size < HEADER || size > Integer.MAX_VALUE) {
+                return false;
+            }
+            MappedByteBuffer b = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int n = b.getInt(24);
+            if (b.getInt(0) != MAGIC || b.getInt(4) != VERSION || b.getLong(8) != len || b.getLong(16) != crc || n < 0) {
+                return false;
+            }
+            b.position(HEADER); // mapping stays valid after the channel is closed
+            PackedIndex index = new PackedIndex(b.slice());
+            if (index.size() != n + 1 || index.get(n) - 1 > limit) {
+                return false; // stale or corrupted index: last row would end past the text
+            }
+            lines = index;
+            widest = b.getInt(28);
+            rows = n;
+            return true;
+        } catch (IllegalArgumentException e) {
+            trace(e);
+            return false;
+        } catch (IOException e) {
+            trace(e);
+            return false;
+        } finally {
+            util.close(raf);
+        }
+    }
+
+    private void save(long len, long crc) {
+        File f = cache();
+        if (f == null || HEADER + lines.bytes() > Integer.MAX_VALUE) {
+            return; // too big to be mapped back
+        }
+        File tmp = new File(f.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(len);
+            out.writeLong(crc);
+            out.writeInt(rows);
+            out.writeInt(widest);
+            lines.write(out);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(f)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            trace(e);
+            tmp.delete();
         } finally {
-            Texts.recycle(text);
+            util.close(out);
+        }
+    }
+
+    /* records positions of "\n" in [from..to) relative to `from' into breaks[chunk]
+       and their number into counts[chunk] */
+    private static void scan(Pages mem, long from, long to, int chunk, int[][] breaks, int[] counts) {
+        byte[] bytes = new byte[Pages.OVERLAP];
+        int[] b = breaks[chunk] != null ? breaks[chunk] : new int[(int)Math.max(16, (to - from) / 8)];
+        int n = 0;
+        for (long i = from; i < to; i += bytes.length) {
+            int m = (int)Math.min(bytes.length, to - i);
+            mem.read(i, bytes, 0, m);
+            for (int k = 0; k < m; k++) {
+                byte ch = bytes[k];
+                if (ch == '\n') {
+                    if (n == b.length) {
+                        b = Arrays.copyOf(b, n * 2);
+                    }
+                    b[n++] = (int)(i - from) + k;
+                }
+            }
         }
+        breaks[chunk] = b;
+        counts[chunk] = n;
     }
 
 }
@@ -0,0 +1,91 @@
+/*  Copyright (c) 2012, Leo Kuznetsov
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+    * Neither the name of the {organization} nor the names of its
+      contributors may be used to endorse or promote products derived from
+      this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+    DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+    FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+    DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+    SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+    CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+    OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+    OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package android.mono.table.etc;
+
+/** ByteArray is a TextInterface view over ASCII (or ISO-8859-1) bytes. Characters are widened
+    on demand: charAt() reads directly from bytes and array() fills internal character buffer
+    only when caller needs char[] (e.g. to draw or measure the text).
+ */
+
+public class ByteArray implements TextInterface {
+
+    private byte[] bytes;
+    private int offset;
+    private int length;
+    private char[] chars = new char[64];
+
+    public ByteArray() { }
+
+    public ByteArray wrap(byte[] a, int ofs, int len) {
+        bytes = a;
+        offset = ofs;
+        length = len;
+        return this;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public char charAt(int i) {
+        return (char)(bytes[i + offset] & 0xFF);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        throw new Error("intentionally not implemented for GC reduction reasons");
+    }
+
+    public char[] array() {
+        if (chars.length < length) {
+            chars = new char[length * 3 / 2];
+        }
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char)(bytes[i + offset] & 0xFF);
+        }
+        return chars;
+    }
+
+    public int offset() {
+        return 0;
+    }
+
+    public boolean equals(Object o) {
+        return o instanceof CharSequence ? util.equals(this, (CharSequence)o) : super.equals(o);
+    }
+
+    public int hashCode() {
+        return util.hashCode(this);
+    }
+
+    public String toString() {
+        return new String(array(), 0, length);
+    }
+
+}
@@ -0,0 +1,93 @@
+/*  Copyright (c) 2012, Leo Kuznetsov
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+    * Neither the name of the {organization} nor the names of its
+      contributors may be used to endorse or promote products derived from
+      this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+    DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+    FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+    DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+    SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+    CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+    OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+    OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package android.mono.table.etc;
+
+import java.nio.*;
+
+/** ByteBufferArray is a TextInterface view over ASCII bytes of a (possibly memory mapped) ByteBuffer.
+    Nothing is copied to the heap until array() is called and then only `length' characters of the
+    view are widened into internal buffer (e.g. for the visible cell being drawn or measured).
+ */
+
+public class ByteBufferArray implements TextInterface {
+
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+    private char[] chars = new char[64];
+
+    public ByteBufferArray() { }
+
+    public ByteBufferArray wrap(ByteBuffer b, int ofs, int len) {
+        buffer = b;
+        offset = ofs;
+        length = len;
+        return this;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public char charAt(int i) {
+        return (char)(buffer.get(i + offset) & 0xFF);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        throw new Error("intentionally not implemented for GC reduction reasons");
+    }
+
+    public char[] array() {
+        if (chars.length < length) {
+            chars = new char[length * 3 / 2];
+        }
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char)(buffer.get(i + offset) & 0xFF);
+        }
+        return chars;
+    }
+
+    public int offset() {
+        return 0;
+    }
+
+    public boolean equals(Object o) {
+        return o instanceof CharSequence ? util.equals(this, (CharSequence)o) : super.equals(o);
+    }
+
+    public int hashCode() {
+        return util.hashCode(this);
+    }
+
+    public String toString() {
+        return new String(array(), 0, length);
+    }
+
+}
@@ -68,4 +68,8 @@ public class CharArray implements TextInterface {
         return o instanceof CharSequence ? util.equals(this, (CharSequence)o) : super.equals(o);
     }
 
+    public int hashCode() {
+        return util.hashCode(this);
+    }
+
 }
@@ -0,0 +1,165 @@
+/*  Copyright (c) 2012, Leo Kuznetsov
+    All rights reserved.
+
+    Redistribution and use in source and binary forms, with or without
+    modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+    * Neither the name of the {organization} nor the names of its
+      contributors may be used to endorse or promote products derived from
+      this software without specific prior written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+    DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+    FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+    DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+    SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+    CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+    OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+    OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package android.mono.table.etc;
+
+import android.graphics.*;
+
+/** Metrics are cell metrics of a monospaced Paint configuration (typeface, size, scale, skew and flags):
+    advance of a single cell, ascent and descent. They are measured once per configuration, after that
+    the width of any text is its number of cells times the advance. East Asian wide and fullwidth
+    characters take two cells, combining marks, format characters and low surrogates take none.
+    Only usable from application main thread.
+ */
+
+public final class Metrics {
+
+    public final float advance;
+    public final int ascent;  // negative: above the baseline
+    public final int descent;
+
+    private final Typeface typeface;
+    private final float size;
+    private final float scale;
+    private final float skew;
+    private final int flags;
+
+    private static final Metrics[] cache = new Metrics[4]; // most recently used first
+    private static final byte[] ascii = new byte[128];
+
+    static {
+        for (int c = 0; c < ascii.length; c++) {
+            ascii[c] = (byte)(c < 0x20 || c == 0x7F ? 0 : 1);
+        }
+    }
+
+    private Metrics(Paint p) {
+        typeface = p.getTypeface();
+        size = p.getTextSize();
+        scale = p.getTextScaleX();
+        skew = p.getTextSkewX();
+        flags = p.getFlags();
+        advance = p.measureText("M");
+        Paint.FontMetricsInt fm = new Paint.FontMetricsInt();
+        p.getFontMetricsInt(fm);
+        ascent = fm.ascent;
+        descent = fm.descent;
+    }
+
+    public static Metrics of(Paint p) {
+        for (int i = 0; i < cache.length && cache[i] != null; i++) {
+            Metrics m = cache[i];
+            if (m.matches(p)) {
+                System.arraycopy(cache, 0, cache, 1, i);
+                cache[0] = m;
+                return m;
+            }
+        }
+        System.arraycopy(cache, 0, cache, 1, cache.length - 1);
+        cache[0] = new Metrics(p);
+        return cache[0];
+    }
+
+    private boolean matches(Paint p) {
+        return p.getTypeface() == typeface && p.getTextSize() == size && p.getTextScaleX() == scale &&
+               p.getTextSkewX() == skew && p.getFlags() == flags;
+    }
+
+    public float width(int cells) {
+        return cells * advance;
+    }
+
+    /** @return bounds of `cells' wide text relative to the baseline (like Paint.getTextBounds) */
+    public Rect bounds(int cells, Rect r) {
+        r.set(0, ascent, (int)Math.ceil(cells * advance), descent);
+        return r;
+    }
+
+    /** @return number of cells the character takes: 0, 1 or 2 */
+    public static int cells(char c) {
+        if (c < 0x80) {
+            return ascii[c];
+        }
+        if (c >= 0xDC00 && c <= 0xDFFF) {
+            return 0; // low surrogate, the pair is counted at the high surrogate
+        }
+        if (c >= 0xD800 && c <= 0xDBFF) {
+            return c >= 0xD840 && c <= 0xD8BF ? 2 : 1; // supplementary ideographic planes 2 and 3
+        }
+        if (isWide(c)) {
+            return 2;
+        }
+        switch (Character.getType(c)) {
+            case Character.NON_SPACING_MARK:
+            case Character.ENCLOSING_MARK:
+            case Character.FORMAT:
+            case Character.CONTROL:
+                return 0;
+            default:
+                return 1;
+        }
+    }
+
+    public static int cells(CharSequence s) {
+        return cells(s, s.length());
+    }
+
+    /** @return number of cells of the first n characters */
+    public static int cells(CharSequence s, int n) {
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            k += cells(s.charAt(i));
+        }
+        return k;
+    }
+
+    /** @return number of cells of bytes widened as ISO-8859-1 characters (see ByteArray) */
+    public static int cells(byte[] b, int ofs, int len) {
+        int k = 0;
+        for (int i = ofs; i < ofs + len; i++) {
+            int c = b[i] & 0xFF;
+            k += c < 0x80 ? ascii[c] : c < 0xA0 || c == 0xAD ? 0 : 1; // C1 controls and soft hyphen
+        }
+        return k;
+    }
+
+    /* East Asian Wide (W) and Fullwidth (F) blocks of the basic multilingual plane */
+    private static boolean isWide(char c) {
+        return c >= 0x1100 && c <= 0x115F ||         // Hangul Jamo initial consonants
+               c >= 0x2E80 && c <= 0xA4CF && c != 0x303F || // CJK radicals ... Yi
+               c >= 0xA960 && c <= 0xA97F ||         // Hangul Jamo extended A
+               c >= 0xAC00 && c <= 0xD7A3 ||         // Hangul syllables
+               c >= 0xF900 && c <= 0xFAFF ||         // CJK compatibility ideographs
+               c >= 0xFE10 && c <= 0xFE19 ||         // vertical forms
+               c >= 0xFE30 && c <= 0xFE6F ||         // CJK compatibility forms, small form variants
+               c >= 0xFF00 && c <= 0xFF60 ||         // fullwidth forms
+               c >= 0xFFE0 && c <= 0xFFE6;
+    }
+
+}
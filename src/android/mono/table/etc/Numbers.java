@@ -62,6 +62,8 @@ public class Numbers {
     public static final long Double_EXPONENT_MASK = 0x7ff0000000000000L;
     public static final long Double_MANTISSA_MASK = 0x000fffffffffffffL;
 
+    private static final long LONG_MIN_DIV_10 = Long.MIN_VALUE / 10;
+
     private static final double invLogOfTenBaseTwo = Math.log(2.0) / Math.log(10.0);
 
     private static final Text INFINITY = wrap("Infinity");
@@ -107,6 +109,48 @@ public class Numbers {
         return parse(s, offset, length, 10);
     }
 
+    /** parses ASCII decimal directly from bytes (e.g. procFS content) without widening them to characters */
+    public static long parseLong(byte[] b, int offset, int length) {
+        return parse(b, offset, length, true, 0);
+    }
+
+    /** same as above but returns `otherwise' instead of throwing on malformed or overflowing input */
+    public static long parseLong(byte[] b, int offset, int length, long otherwise) {
+        return parse(b, offset, length, false, otherwise);
+    }
+
+    private static long parse(byte[] b, int offset, int length, boolean strict, long otherwise) {
+        int end = offset + length;
+        boolean negative = offset < end && b[offset] == '-';
+        int i = negative ? offset + 1 : offset;
+        if (i >= end) {
+            return invalid(b, offset, length, strict, otherwise);
+        }
+        long result = 0;
+        while (i < end) {
+            int digit = b[i++] - '0';
+            if (digit < 0 || digit > 9 || result < LONG_MIN_DIV_10 ||
+                result == LONG_MIN_DIV_10 && digit > 8) {
+                return invalid(b, offset, length, strict, otherwise);
+            }
+            result = result * 10 - digit;
+        }
+        if (!negative) {
+            result = -result;
+            if (result < 0) {
+                return invalid(b, offset, length, strict, otherwise);
+            }
+        }
+        return result;
+    }
+
+    private static long invalid(byte[] b, int offset, int length, boolean strict, long otherwise) {
+        if (strict) {
+            throw invalidLong(b, offset, length);
+        }
+        return otherwise;
+    }
+
     private static long parse(CharSequence s, int offset, int length, int radix) {
         int start = offset;
         int end = offset + length;
@@ -145,6 +189,14 @@ public class Numbers {
         return result;
     }
 
+    private static NumberFormatException invalidLong(byte[] b, int offset, int length) {
+        char[] ca = new char[length];
+        for (int i = 0; i < length; i++) {
+            ca[i] = (char)(b[offset + i] & 0xFF);
+        }
+        return new NumberFormatException("Invalid long: \"" + new String(ca) + "\"");
+    }
+
     private static NumberFormatException invalidLong(CharSequence s, int offset, int length) {
         char[] ca = new char[length];
         for (int i = 0; i < length; i++) {
@@ -172,6 +172,10 @@ public class Text extends CharArrayWriter implements TextInterface {
         return o instanceof CharSequence ? util.equals(this, (CharSequence)o) : super.equals(o);
     }
 
+    public int hashCode() {
+        return util.hashCode(this);
+    }
+
     private static class CharSubSequence implements CharSequence {
 
         private final int start;
@@ -90,6 +90,16 @@ public class util {
         }
     }
 
+    /** @return same hash as String.hashCode() of the characters, consistent with equals(CharSequence, CharSequence) */
+    public static int hashCode(CharSequence cs) {
+        int h = 0;
+        int n = cs.length();
+        for (int i = 0; i < n; i++) {
+            h = 31 * h + cs.charAt(i);
+        }
+        return h;
+    }
+
     public static float unitToPixels(int unit, float size) {
         DisplayMetrics dm = Resources.getSystem().getDisplayMetrics();
         if (dm.xdpi == 75 && dm.widthPixels >= 1920 && dm.heightPixels >= 1000) {
@@ -271,6 +281,10 @@ public class util {
         mainHandler.postDelayed(r, milliseconds);
     }
 
+    public static void removeCallbacks(Runnable r) {
+        mainHandler.removeCallbacks(r);
+    }
+
     @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
     public static void postDelayedAndWait(final Runnable r, long milliseconds) {
         final Object lock = new Object();
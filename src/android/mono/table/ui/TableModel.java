@@ -31,6 +31,7 @@ package android.mono.table.ui;
 
 import android.graphics.*;
 import android.graphics.drawable.*;
+import android.mono.table.etc.*;
 
 public interface TableModel {
     public static final int
@@ -40,7 +41,9 @@ public interface TableModel {
 
     int columns();
     int rows();
+    boolean changed(int row);
     Paint paint(int column, int row);
+    TextInterface text(int column, int row);
     Drawable drawable(int column, int row);
     void recycle(Drawable d);
     Rect bounds(int row, int column);
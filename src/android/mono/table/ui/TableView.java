@@ -33,19 +33,62 @@ import android.content.*;
 import android.graphics.*;
 import android.graphics.drawable.*;
 import android.view.*;
+import android.widget.*;
 import android.mono.table.etc.*;
 
+import java.util.*;
+
 import static android.view.View.MeasureSpec.*;
 
+/** TableView scrolls itself (drag and fling in both directions) and draws only the rows and columns inside
+    of the viewport, so it must not be placed inside of a ScrollView.
+ */
+
 public class TableView extends View {
 
     private float[] widths;
+    private float[] lefts; // prefix sums of widths: lefts[c] is x of the column c, lefts[columns] is the total
     private float   height;
+    private int dirtyFirst = -1; // range of columns to re-measure
+    private int dirtyLast = -1;
+    private int firstColumn; // visible columns [firstColumn..lastColumn) of the frame being drawn
+    private int lastColumn;
     private final Rect visible = new Rect();
+    private final Rect clip = new Rect();
+    private int measuredRows;
+    private int contentWidth;
+    private int contentHeight;
+    private final OverScroller scroller;
+    private VelocityTracker velocity;
+    private final int slop;
+    private final int minFling;
+    private final int maxFling;
+    private float lastX;
+    private float lastY;
+    private boolean dragging;
     private TableModel model;
+    private char[] chars = new char[256]; // visible characters of a cell and the ellipsis
+    // runs of the row drawn by drawRow(), one per color: characters on the grid padded with spaces
+    private int runs;
+    private int span; // grid cells of the visible part of the row
+    private int[] runColors = new int[4];
+    private int[] runColumns = new int[4]; // a column of the run, its paint() has the color of the run
+    private int[] runFirst = new int[4];   // first and last + 1 grid cells of the run that are not spaces
+    private int[] runLast = new int[4];
+    private char[][] runChars = new char[4][];
+    private final Rect pd = new Rect();
+    private static final char ELLIPSIS = '\u2026';
 
     public TableView(Context context) {
         super(context);
+        scroller = new OverScroller(context);
+        ViewConfiguration vc = ViewConfiguration.get(context);
+        slop = vc.getScaledTouchSlop();
+        minFling = vc.getScaledMinimumFlingVelocity();
+        maxFling = vc.getScaledMaximumFlingVelocity();
+        setScrollbarFadingEnabled(true); // creates the scroll bars cache, views made in code have none
+        setVerticalScrollBarEnabled(true);
+        setHorizontalScrollBarEnabled(true);
     }
 
     public TableView setModel(TableModel m) {
@@ -53,66 +96,194 @@ public class TableView extends View {
         return this;
     }
 
+    /* only columns that were found changed while drawing are measured again (all when columns come and go) */
     protected void onMeasure(int wms, int hms) {
-        Rect rc = Rects.getRect();
-        Rect pd = Rects.getRect();
-        float width = 0;
-        try {
-            int columns = model.columns();
-            if (widths == null || widths.length != columns) {
-                widths = new float[columns];
-            }
+        int columns = model.columns();
+        if (widths == null || widths.length != columns) {
+            widths = new float[columns];
+            lefts = new float[columns + 1];
             height = 0;
-            for (int c = 0; c < columns; c++) {
+            dirtyFirst = 0;
+            dirtyLast = columns - 1;
+        }
+        if (dirtyFirst >= 0) {
+            for (int c = dirtyFirst; c <= dirtyLast; c++) {
                 Rect bounds = model.bounds(c, 0);
-                widths[c] = bounds.width();
-                width += widths[c];
+                widths[c] = snap(c, 0, bounds.width());
                 height = Math.max(height, bounds.height());
             }
-        } finally {
-            Rects.recycle(rc);
-            Rects.recycle(pd);
+            for (int c = dirtyFirst; c < columns; c++) {
+                lefts[c + 1] = lefts[c] + widths[c];
+            }
+            dirtyFirst = dirtyLast = -1;
+        }
+        measuredRows = model.rows();
+        contentWidth = (int)Math.ceil(getPaddingLeft() + lefts[columns] + getPaddingRight());
+        contentHeight = (int)Math.ceil(getPaddingTop() + measuredRows * height + getPaddingBottom());
+        setMeasuredDimension(util.measure(getMode(wms), getSize(wms), contentWidth),
+                             util.measure(getMode(hms), getSize(hms), contentHeight));
+    }
+
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        super.onLayout(changed, left, top, right, bottom);
+        scrollTo(getScrollX(), getScrollY()); // content may have shrunk
+    }
+
+    /** scroll position is clamped to the content */
+    public void scrollTo(int x, int y) {
+        super.scrollTo(Math.max(0, Math.min(x, contentWidth - getWidth())),
+                       Math.max(0, Math.min(y, contentHeight - getHeight())));
+    }
+
+    protected int computeHorizontalScrollRange() {
+        return Math.max(contentWidth, getWidth());
+    }
+
+    protected int computeVerticalScrollRange() {
+        return Math.max(contentHeight, getHeight());
+    }
+
+    public boolean onTouchEvent(MotionEvent e) {
+        if (velocity == null) {
+            velocity = VelocityTracker.obtain();
+        }
+        velocity.addMovement(e);
+        switch (e.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                scroller.forceFinished(true); // touch stops fling
+                lastX = e.getX();
+                lastY = e.getY();
+                dragging = false;
+                return true;
+            case MotionEvent.ACTION_MOVE:
+                int dx = (int)(lastX - e.getX());
+                int dy = (int)(lastY - e.getY());
+                if (!dragging && Math.max(Math.abs(dx), Math.abs(dy)) > slop) {
+                    dragging = true;
+                    if (getParent() != null) {
+                        getParent().requestDisallowInterceptTouchEvent(true);
+                    }
+                }
+                if (dragging) {
+                    scrollBy(dx, dy);
+                    lastX -= dx; // keep the fractions
+                    lastY -= dy;
+                }
+                return true;
+            case MotionEvent.ACTION_UP:
+                if (dragging) {
+                    velocity.computeCurrentVelocity(1000, maxFling);
+                    int vx = (int)velocity.getXVelocity();
+                    int vy = (int)velocity.getYVelocity();
+                    if (Math.max(Math.abs(vx), Math.abs(vy)) > minFling) {
+                        scroller.fling(getScrollX(), getScrollY(), -vx, -vy,
+                                0, Math.max(0, contentWidth - getWidth()),
+                                0, Math.max(0, contentHeight - getHeight()), 0, 0);
+                        invalidate();
+                    }
+                }
+                // fall through
+            case MotionEvent.ACTION_CANCEL:
+                dragging = false;
+                velocity.recycle();
+                velocity = null;
+                return true;
+            default:
+                return super.onTouchEvent(e);
+        }
+    }
+
+    public void computeScroll() {
+        if (scroller.computeScrollOffset()) {
+            scrollTo(scroller.getCurrX(), scroller.getCurrY());
+            if (!scroller.isFinished() && !awakenScrollBars()) {
+                postInvalidate();
+            }
+        }
+    }
+
+    /* viewport in content coordinates (the ones canvas and invalidate(l, t, r, b) use) */
+    private boolean viewport(Rect r) {
+        int x = getScrollX();
+        int y = getScrollY();
+        r.set(x, y, x + getWidth(), y + getHeight());
+        return !r.isEmpty();
+    }
+
+    /** invalidates only visible rows reported by TableModel.changed() after the model has been updated.
+        Hardware accelerated views re-record the whole display list on any invalidate, so there the view
+        is invalidated once if any visible row changed and not at all otherwise. */
+    public void invalidateChanged() {
+        if (widths == null || model.rows() != measuredRows) {
+            requestLayout();
+            invalidate();
+            return;
+        }
+        if (!viewport(visible) || height <= 0) {
+            return;
+        }
+        int top = getPaddingTop();
+        int first = Math.max(0, (int)Math.floor((visible.top - top) / height));
+        int last = Math.min(measuredRows, (int)Math.ceil((visible.bottom - top) / height));
+        int r = first;
+        while (r < last) {
+            if (!model.changed(r)) {
+                r++;
+                continue;
+            }
+            if (isHardwareAccelerated()) {
+                invalidate();
+                return;
+            }
+            int from = r;
+            while (r < last && model.changed(r)) {
+                r++;
+            }
+            invalidate(visible.left, (int)Math.floor(top + from * height),
+                       visible.right, (int)Math.ceil(top + r * height));
         }
-        int w = (int)Math.ceil(getPaddingLeft() + width + getPaddingRight());
-        int h = (int)Math.ceil(getPaddingTop() + model.rows() * height + getPaddingBottom());
-        setMeasuredDimension(util.measure(getMode(wms), getSize(wms), w),
-                             util.measure(getMode(hms), getSize(hms), h));
     }
 
     public void draw(Canvas canvas) {
         super.draw(canvas);
-        if (getLocalVisibleRect(visible) && visible.width() > 0 && visible.height() > 0) {
+        // padding stays in place while the content scrolls; only the clip is drawn (the dirty rows when
+        // rendering in software, hardware accelerated canvases report the whole view)
+        if (viewport(visible) && canvas.getClipBounds(clip) && visible.intersect(
+                visible.left + getPaddingLeft(), visible.top + getPaddingTop(),
+                visible.right - getPaddingRight(), visible.bottom - getPaddingBottom()) &&
+                visible.intersect(clip)) {
             canvas.save();
-            try { drawTable(canvas); } finally { canvas.restore(); }
+            try {
+                if (model instanceof TextRenderer) {
+                    drawRows(canvas, (TextRenderer)model);
+                } else {
+                    drawTable(canvas);
+                }
+            } finally {
+                canvas.restore();
+            }
         }
     }
 
     private void drawTable(Canvas canvas) {
-        visible.left += getPaddingLeft();
-        visible.top += getPaddingTop();
-        visible.right -= getPaddingRight();
-        visible.bottom -= getPaddingBottom();
-        int firstVisibleRow = (int)Math.floor(visible.top / height);
+        int firstVisibleRow = Math.max(0, (int)Math.floor((visible.top - getPaddingTop()) / height));
         int lastVisibleRow = (int)Math.ceil((visible.bottom + height) / height);
         float y = getPaddingTop() + firstVisibleRow * height;
-        int columns = model.columns();
         int rows = Math.min(model.rows(), lastVisibleRow);
+        if (firstVisibleRow >= rows || !visibleColumns(firstVisibleRow)) {
+            return;
+        }
         canvas.clipRect(visible);
         for (int r = firstVisibleRow; r < rows; r++) {
-            float x = getPaddingLeft();
-            for (int c = 0; c < columns; c++) {
+            float x = getPaddingLeft() + lefts[firstColumn];
+            for (int c = firstColumn; c < lastColumn; c++) {
                 Drawable d = model.drawable(c, r);
                 try {
                     int mw = d.getMinimumWidth();
                     int mh = d.getMinimumHeight();
                     d.setBounds((int)Math.floor(x), (int)Math.floor(y), Math.round(x + mw), Math.round(y + mh));
                     canvas.clipRect(visible, Region.Op.REPLACE);
-                    Rect b = model.bounds(c, r);
-                    if (b.width() != widths[c]) {
-                        requestLayout();
-                        return;
-                    }
-                    canvas.clipRect(x, y, x + b.width(), y + b.height()); // intersect
+                    canvas.clipRect(x, y, x + widths[c], y + height); // intersect
                     d.draw(canvas);
                     x += widths[c];
                 } finally {
@@ -123,4 +294,234 @@ public class TableView extends View {
         }
     }
 
+    /* Monospaced text models are drawn a row at a time without Drawables. Column widths are whole
+       advances (see snap()), so all cells of a row sit on a single character grid: visible characters of
+       the row are laid into one space padded char[] per color and each of them is a single drawText.
+       Cells off the grid (a different font, wide or combining characters whose glyphs do not advance by
+       exactly one cell) are drawn by drawCell(). Cells are clipped by truncating characters (with an
+       ellipsis) instead of changing the canvas clip. (drawPosText is deprecated and is not supported by
+       hardware accelerated canvases before API 16.) */
+    private void drawRows(Canvas canvas, TextRenderer renderer) {
+        int firstVisibleRow = Math.max(0, (int)Math.floor((visible.top - getPaddingTop()) / height));
+        int lastVisibleRow = (int)Math.ceil((visible.bottom + height) / height);
+        float y = getPaddingTop() + firstVisibleRow * height;
+        int rows = Math.min(model.rows(), lastVisibleRow);
+        if (firstVisibleRow >= rows || !visibleColumns(firstVisibleRow)) {
+            return;
+        }
+        renderer.getPadding(pd);
+        canvas.clipRect(visible);
+        for (int r = firstVisibleRow; r < rows; r++) {
+            drawRow(canvas, r, y);
+            y += height;
+        }
+    }
+
+    private void drawRow(Canvas canvas, int r, float y) {
+        Metrics m = Metrics.of(model.paint(firstColumn, r));
+        float x0 = getPaddingLeft() + pd.left; // origin of the grid
+        int from = Math.max(0, (int)Math.floor((visible.left - x0) / m.advance));
+        span = Math.max(0, (int)Math.ceil((visible.right - x0) / m.advance) - from);
+        runs = 0;
+        for (int c = firstColumn; c < lastColumn; c++) {
+            Paint paint = model.paint(c, r);
+            int color = paint.getColor();
+            int s = Math.round(lefts[c] / m.advance); // grid cell of the column
+            if (Metrics.of(paint) != m || Math.abs(s * m.advance - lefts[c]) > 0.01f ||
+                !lay(c, r, m, color, s - from)) {
+                drawCell(canvas, c, r, getPaddingLeft() + lefts[c], y);
+            }
+        }
+        float baseline = y + pd.top - m.ascent;
+        for (int k = 0; k < runs; k++) {
+            if (runFirst[k] < runLast[k]) {
+                canvas.drawText(runChars[k], runFirst[k], runLast[k] - runFirst[k],
+                                x0 + (from + runFirst[k]) * m.advance, baseline, model.paint(runColumns[k], r));
+            }
+        }
+    }
+
+    /* lays visible characters of the cell starting at grid cell `g' (relative to the visible part of the
+       row) into the run of its color. Controls and soft hyphens take no cell and are dropped.
+       @return false if the cell has wide or combining characters and must be drawn by drawCell() */
+    private boolean lay(int c, int r, Metrics m, int color, int g) {
+        TextInterface t = model.text(c, r);
+        int len = t.length();
+        for (int i = 0; i < len; i++) {
+            char ch = t.charAt(i);
+            int w = Metrics.cells(ch);
+            if (w > 1 || w == 0 && ch >= 0x100) {
+                return false;
+            }
+        }
+        int cells = Metrics.cells(t, len);
+        int fit = fit(c, m);
+        boolean cut = cells > fit && fit > 0;
+        if (cut) {
+            while (len > 0 && cells + 1 > fit) {
+                len--;
+                cells -= Metrics.cells(t.charAt(len));
+            }
+        }
+        g += offset(c, r, fit, cut ? cells + 1 : cells);
+        int k = run(color, c);
+        for (int i = 0; i < len; i++) {
+            char ch = t.charAt(i);
+            if (Metrics.cells(ch) == 1) {
+                put(k, g++, ch);
+            }
+        }
+        if (cut) {
+            put(k, g, ELLIPSIS);
+        }
+        return true;
+    }
+
+    /* @return index of the run of the color, a new one is filled with spaces */
+    private int run(int color, int c) {
+        for (int k = 0; k < runs; k++) {
+            if (runColors[k] == color) {
+                return k;
+            }
+        }
+        if (runs == runColors.length) {
+            runColors = Arrays.copyOf(runColors, runs * 2);
+            runColumns = Arrays.copyOf(runColumns, runs * 2);
+            runFirst = Arrays.copyOf(runFirst, runs * 2);
+            runLast = Arrays.copyOf(runLast, runs * 2);
+            runChars = Arrays.copyOf(runChars, runs * 2);
+        }
+        int k = runs++;
+        if (runChars[k] == null || runChars[k].length < span) {
+            runChars[k] = new char[Math.max(span, 64)];
+        }
+        Arrays.fill(runChars[k], 0, span, ' ');
+        runColors[k] = color;
+        runColumns[k] = c;
+        runFirst[k] = span;
+        runLast[k] = 0;
+        return k;
+    }
+
+    private void put(int k, int g, char ch) {
+        if (0 <= g && g < span) {
+            runChars[k][g] = ch;
+            runFirst[k] = Math.min(runFirst[k], g);
+            runLast[k] = Math.max(runLast[k], g + 1);
+        }
+    }
+
+    /* @return width of the column rounded up to whole advances for text models, so columns start on
+       the character grid of the row (used by both onMeasure() and visibleColumns()) */
+    private float snap(int c, int r, float width) {
+        if (!(model instanceof TextRenderer)) {
+            return width;
+        }
+        float a = Metrics.of(model.paint(c, r)).advance;
+        return a > 0 ? (float)Math.ceil(width / a - 0.01f) * a : width;
+    }
+
+    /* @return number of characters that fit the column inside of the cell padding */
+    private int fit(int c, Metrics m) {
+        return (int)Math.floor((widths[c] - pd.left - pd.right) / m.advance + 0.01f);
+    }
+
+    /* @return first cell of `shown' cells justified in the `fit' cells of the column */
+    private int offset(int c, int r, int fit, int shown) {
+        switch (model.justify(c, r)) {
+            case TableModel.LEFT_JUSTIFIED:  return 0;
+            case TableModel.CENTERED:        return (fit - shown) / 2;
+            default:                         return fit - shown;
+        }
+    }
+
+    /* finds columns intersecting the visible rect by the prefix sums of widths and checks that their widths
+       have not changed: changed columns are re-measured by the next layout while the current frame is
+       still drawn with the old widths (cells are cut to them) instead of being skipped, which flickers.
+       @return false if there are no widths to draw with yet */
+    private boolean visibleColumns(int row) {
+        int columns = model.columns();
+        if (widths == null || widths.length != columns) {
+            requestLayout();
+            return false;
+        }
+        firstColumn = column(visible.left - getPaddingLeft());
+        lastColumn = Math.min(columns, column(visible.right - getPaddingLeft()) + 1);
+        for (int c = firstColumn; c < lastColumn; c++) {
+            if (snap(c, row, model.bounds(c, row).width()) != widths[c]) {
+                dirtyFirst = dirtyFirst < 0 ? c : Math.min(dirtyFirst, c);
+                dirtyLast = Math.max(dirtyLast, c);
+            }
+        }
+        if (dirtyFirst >= 0) { // this frame is drawn with the old widths, the next one after the layout
+            requestLayout();
+            invalidate(); // columns to the right move
+        }
+        return true;
+    }
+
+    /* @return column at x (relative to the left padding) clamped to existing columns */
+    private int column(float x) {
+        int lo = 0;
+        int hi = widths.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (lefts[mid] <= x) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return Math.max(lo, 0);
+    }
+
+    /* draws visible characters of the cell (and the ellipsis if the text does not fit) with one call */
+    private void drawCell(Canvas canvas, int c, int r, float x, float y) {
+        Paint paint = model.paint(c, r);
+        Metrics m = Metrics.of(paint);
+        TextInterface t = model.text(c, r);
+        int len = t.length();
+        int cells = Metrics.cells(t, len);
+        int fit = fit(c, m);
+        boolean cut = cells > fit && fit > 0;
+        if (cut) {
+            while (len > 0 && cells + 1 > fit) {
+                len--;
+                cells -= Metrics.cells(t.charAt(len));
+            }
+        }
+        float left = x + pd.left + offset(c, r, fit, cut ? cells + 1 : cells) * m.advance;
+        // skip characters left and right of the visible rect, combining marks stay with their base
+        int k = 0; // cell of the character
+        int i = 0;
+        while (i < len && left + (k + Math.max(Metrics.cells(t.charAt(i)), 1)) * m.advance < visible.left) {
+            k += Metrics.cells(t.charAt(i++));
+        }
+        while (i < len && Metrics.cells(t.charAt(i)) == 0) {
+            i++;
+        }
+        float first = left + k * m.advance;
+        if (chars.length < len - i + 1) {
+            chars = new char[(len - i + 1) * 3 / 2];
+        }
+        int n = 0;
+        while (i < len) {
+            char ch = t.charAt(i);
+            int w = Metrics.cells(ch);
+            if (w > 0 && left + k * m.advance > visible.right) {
+                break;
+            }
+            chars[n++] = ch;
+            k += w;
+            i++;
+        }
+        if (cut && i == len && left + k * m.advance <= visible.right) {
+            chars[n++] = ELLIPSIS;
+        }
+        if (n > 0) {
+            float baseline = y + pd.top - m.ascent;
+            canvas.drawText(chars, 0, n, first, baseline, paint);
+        }
+    }
+
 }
@@ -44,10 +44,9 @@ public abstract class TextRenderer extends Drawable implements TableModel {
     private int len;
     private TextInterface text;
     private int ellipsis = -1;
-    private final float[] widths = new float[1024]; // will accommodate 4K pixels horizontal, 4 pixels wide monospace font
+    private Metrics metrics;
     private float width;
     private float height;
-    private final Rect rc = new Rect(); // text bounds
     private final Rect pd = new Rect(); // padding
     private final Rect cb = new Rect(); // clip box
 
@@ -55,16 +54,10 @@ public abstract class TextRenderer extends Drawable implements TableModel {
         column = c;
         row = r;
         text = txt;
-        len = Math.min(text.length(), widths.length);
-        Paint p = paint(c, r);
-        if (height == 0) {
-            p.getTextBounds(text.array(), text.offset(), len, rc); // expensive ~100 microseconds
-            height = rc.height(); // rc.width is not the same as width returned by measureText
-        }
-        if (widths[len] == 0) { // this is optimization is only valid for MONOSPACED fonts
-            widths[len] = paint(c, r).measureText(text.array(), text.offset(), len); // expensive ~100 microseconds
-        }
-        width = widths[len];
+        len = text.length();
+        metrics = Metrics.of(paint(c, r)); // measureText and getTextBounds are ~100 microseconds each
+        height = metrics.descent - metrics.ascent;
+        width = metrics.width(Metrics.cells(text, len)); // only valid for MONOSPACED fonts
         getPadding(pd);
     }
 
@@ -89,7 +82,7 @@ public abstract class TextRenderer extends Drawable implements TableModel {
             Paint paint = paint(column, row);
             Rect b = getBounds();
             float x = b.left + pd.left;
-            float y = b.top + pd.top + height;
+            float y = b.top + pd.top - metrics.ascent;
             float w = pd.left + width + pd.right;
             x = adjust(x, w);
             // w - 1 because of rounding errors
@@ -109,7 +102,7 @@ public abstract class TextRenderer extends Drawable implements TableModel {
         float w = width;
         while (n > 1 && ellipsis > 0 && cb.width() < pd.left + w - 1 + ellipsis + pd.right) {
             n--;
-            w = paint.measureText(text.array(), text.offset(), n);
+            w -= metrics.width(Metrics.cells(text.charAt(n)));
         }
         x = adjust(x, w);
         c.drawText(text.array(), text.offset(), n, x, y, paint);
@@ -32,6 +32,7 @@ package android.mono.table.ui;
 import android.graphics.*;
 import android.graphics.drawable.*;
 import android.mono.table.data.*;
+import android.mono.table.etc.*;
 
 import static android.mono.table.etc.util.assertion;
 
@@ -54,6 +55,10 @@ public abstract class TextTableModel extends TextRenderer implements TableModel
         return data.rows();
     }
 
+    public boolean changed(int r) {
+        return data.changed(r);
+    }
+
     public abstract Paint paint(int c, int r);
 
     public Rect bounds(int c, int r) {
@@ -68,6 +73,10 @@ public abstract class TextTableModel extends TextRenderer implements TableModel
         return bounds;
     }
 
+    public TextInterface text(int c, int r) {
+        return data.getText(c, r);
+    }
+
     public Drawable drawable(int c, int r) {
         assertion(inuse == 0);
         inuse++;